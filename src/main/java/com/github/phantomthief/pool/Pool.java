@@ -1,5 +1,11 @@
 package com.github.phantomthief.pool;
 
+import static java.util.Collections.emptyList;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Predicate;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -22,6 +28,52 @@ public interface Pool<T> extends AutoCloseable {
         }
     }
 
+    /**
+     * same as {@link #supply}, but counted against the share of {@code priority}.
+     * priorities are only labels, their shares are configured on the pool.
+     */
+    default <V, X extends Throwable> V supply(int priority, ThrowableFunction<T, V, X> function)
+            throws X {
+        Pooled<T> pooled = borrow(priority);
+        try {
+            return function.apply(pooled.get());
+        } finally {
+            returnObject(pooled);
+        }
+    }
+
+    /**
+     * if the call was not finished after {@code hedgeDelay}, the same call would be started
+     * on another object, and the first successful result wins.
+     * the function may be called more than once, so it should be idempotent.
+     *
+     * pools which can not hedge would just call {@link #supply}.
+     */
+    default <V, X extends Throwable> V supplyHedged(ThrowableFunction<T, V, X> function,
+            Duration hedgeDelay) throws X {
+        return supply(function);
+    }
+
+    /**
+     * same as {@link #supplyHedged(ThrowableFunction, Duration)}, with the p95 of recent
+     * hold times as the hedge delay.
+     */
+    default <V, X extends Throwable> V supplyHedged(ThrowableFunction<T, V, X> function) throws X {
+        return supply(function);
+    }
+
+    /**
+     * same as {@link #supply}, but concurrent calls with the same {@code key} share one execution
+     * on one borrowed object, and all of them get its result, or its exception.
+     * calls with the same key must be interchangeable, e.g. reads of the same hot key.
+     *
+     * pools which can not coalesce would just call {@link #supply}.
+     */
+    default <V, X extends Throwable> V supplyCoalesced(@Nonnull Object key,
+            ThrowableFunction<T, V, X> function) throws X {
+        return supply(function);
+    }
+
     default <X extends Throwable> void run(ThrowableConsumer<T, X> consumer) throws X {
         supply(obj -> {
             consumer.accept(obj);
@@ -37,6 +89,40 @@ public interface Pool<T> extends AutoCloseable {
     @Nonnull
     Pooled<T> borrow();
 
+    /**
+     * same as {@link #borrow()}, but counted against the share of {@code priority}.
+     * pools without priority support just ignore it.
+     */
+    @Nonnull
+    default Pooled<T> borrow(int priority) {
+        return borrow();
+    }
+
+    /**
+     * replace all objects through the factory, keeping the capacity during replacing:
+     * each new object is created before the old one is drained and destroyed.
+     * blocking until finished.
+     *
+     * pools which can not replace objects do nothing, see {@link #supportsReplace()}.
+     */
+    default void replaceAll() {
+        replaceAll(it -> true);
+    }
+
+    /**
+     * same as {@link #replaceAll()}, but only objects matching the predicate.
+     */
+    default void replaceAll(@Nonnull Predicate<? super T> predicate) {
+        // nothing could be replaced.
+    }
+
+    /**
+     * @return {@code false} if {@link #replaceAll} does nothing.
+     */
+    default boolean supportsReplace() {
+        return false;
+    }
+
     @Nullable
     <V> V getStats(@Nonnull StatsKey<V> key);
 
@@ -47,4 +133,17 @@ public interface Pool<T> extends AutoCloseable {
 
     @Override
     void close();
+
+    /**
+     * same as {@link #close()}, but objects still in use at the deadline would be destroyed anyway.
+     * pools without deadline support just call {@link #close()}.
+     *
+     * @param deadline how long to wait for in-flight calls, from now.
+     * @return objects which were destroyed while still in use.
+     */
+    @Nonnull
+    default List<T> close(@Nonnull Duration deadline) {
+        close();
+        return emptyList();
+    }
 }
@@ -0,0 +1,66 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.singleton;
+
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * compares the total concurrency against the sum of the learned limits of all objects,
+ * see {@link ConcurrencyInfo#concurrencyLimit()}.
+ *
+ * extend or shrink at most one item on each cycle.
+ */
+@NotThreadSafe
+class AdaptiveLimitAdjustStrategy implements ConcurrencyAdjustStrategy {
+
+    private final double extendRatio;
+    private final double shrinkRatio;
+
+    /**
+     * @param extendRatio extend if total concurrency reach {@code sum(limits) * extendRatio}.
+     * @param shrinkRatio shrink if total concurrency is below
+     *                    {@code sum(limits without the least loaded one) * shrinkRatio}.
+     */
+    AdaptiveLimitAdjustStrategy(double extendRatio, double shrinkRatio) {
+        checkArgument(extendRatio > 0 && extendRatio <= 1);
+        checkArgument(shrinkRatio > 0 && shrinkRatio < extendRatio);
+        this.extendRatio = extendRatio;
+        this.shrinkRatio = shrinkRatio;
+    }
+
+    @Nullable
+    @Override
+    public AdjustResult adjust(@Nonnull Collection<? extends ConcurrencyInfo> current) {
+        long demand = 0;
+        long capacity = 0;
+        ConcurrencyInfo leastLoaded = null;
+        double leastLoad = Double.MAX_VALUE;
+        for (ConcurrencyInfo info : current) {
+            int concurrency = info.currentConcurrency();
+            int limit = info.concurrencyLimit();
+            demand += concurrency;
+            capacity += limit;
+            double load = (double) concurrency / limit;
+            if (load < leastLoad) {
+                leastLoad = load;
+                leastLoaded = info;
+            }
+        }
+        if (leastLoaded == null) {
+            return NO_CHANGE;
+        }
+        if (demand >= capacity * extendRatio) {
+            return new AdjustResult(null, 1);
+        }
+        if (current.size() > 1
+                && demand < (capacity - leastLoaded.concurrencyLimit()) * shrinkRatio) {
+            return new AdjustResult(singleton(leastLoaded), 0);
+        }
+        return NO_CHANGE;
+    }
+}
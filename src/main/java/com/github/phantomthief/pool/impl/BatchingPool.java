@@ -0,0 +1,240 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.github.phantomthief.pool.impl.ConcurrencyAwarePool.CURRENT_COUNT;
+import static com.github.phantomthief.pool.impl.SharedResource.batchExecutor;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.shutdownAndAwaitTermination;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.github.phantomthief.pool.Pool;
+import com.github.phantomthief.util.ThrowableBiFunction;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * collects small operations and hands them to a pooled object in batches,
+ * for objects which support pipelining (e.g. redis or multiplexed rpc clients).
+ *
+ * each batch borrows the least loaded object of the underlying pool,
+ * so concurrent batches spread over objects the same way as {@link Pool#supply} does.
+ * batches are executed by at most {@link BatchingPoolBuilder#maxConcurrentBatches} dispatchers,
+ * operations just queue up while all of them are busy.
+ *
+ * <pre>{@code
+ * BatchingPool<RedisClient, String, String> batchingPool = BatchingPool.builder(pool)
+ *         .maxBatchSize(100)
+ *         .linger(ofMillis(1))
+ *         .build((client, keys) -> client.mget(keys));
+ * CompletableFuture<String> value = batchingPool.submit("key");
+ * }</pre>
+ */
+@ThreadSafe
+public class BatchingPool<T, I, V> implements AutoCloseable {
+
+    private final Pool<T> pool;
+    private final ThrowableBiFunction<T, List<I>, List<V>, Exception> function;
+    private final int maxBatchSize;
+    private final long lingerInNanos;
+    /**
+     * {@code 0} if it follows the size of the pool.
+     */
+    private final int maxConcurrentBatches;
+
+    private final Queue<Operation<I, V>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean lingerScheduled = new AtomicBoolean();
+    private final AtomicInteger dispatchers = new AtomicInteger();
+    private volatile boolean flushRequested = false;
+
+    private final ScheduledThreadPoolExecutor lingerExecutor = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactoryBuilder()
+                    .setNameFormat("batching-pool-linger-%d")
+                    .setDaemon(true)
+                    .build());
+
+    private volatile boolean closing = false;
+
+    /**
+     * see {@link BatchingPool#builder(Pool)}
+     */
+    BatchingPool(BatchingPoolBuilder<T> builder,
+            ThrowableBiFunction<T, List<I>, List<V>, Exception> function) {
+        this.pool = builder.pool;
+        this.function = function;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.lingerInNanos = builder.linger.toNanos();
+        this.maxConcurrentBatches = builder.maxConcurrentBatches;
+    }
+
+    /**
+     * @return completed with the result of the operation once its batch was executed.
+     */
+    @Nonnull
+    public CompletableFuture<V> submit(I item) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        if (closing) {
+            future.completeExceptionally(new IllegalStateException("pool is closed."));
+            return future;
+        }
+        pending.add(new Operation<>(item, future));
+        if (pendingCount.incrementAndGet() >= maxBatchSize) {
+            startDispatcher();
+        } else {
+            scheduleLinger();
+        }
+        return future;
+    }
+
+    private void scheduleLinger() {
+        if (lingerScheduled.compareAndSet(false, true)) {
+            try {
+                lingerExecutor.schedule(this::flush, lingerInNanos, NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // closing, nobody would flush it later.
+                flush();
+            }
+        }
+    }
+
+    /**
+     * start one more dispatcher, unless there are enough already.
+     */
+    private void startDispatcher() {
+        int max = maxDispatchers();
+        int current;
+        do {
+            current = dispatchers.get();
+            if (current >= max) {
+                // running dispatchers would keep draining.
+                return;
+            }
+        } while (!dispatchers.compareAndSet(current, current + 1));
+        batchExecutor().execute(this::dispatch);
+    }
+
+    private int maxDispatchers() {
+        if (maxConcurrentBatches > 0) {
+            return maxConcurrentBatches;
+        }
+        Integer count = pool.getStats(CURRENT_COUNT);
+        return count == null ? 1 : Math.max(1, count);
+    }
+
+    private boolean shouldDispatch() {
+        int count = pendingCount.get();
+        return count >= maxBatchSize || (flushRequested && count > 0);
+    }
+
+    /**
+     * execute batches until no full batch is pending, or all were flushed.
+     */
+    private void dispatch() {
+        try {
+            while (shouldDispatch()) {
+                List<Operation<I, V>> batch = poll();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                execute(batch);
+            }
+            if (pendingCount.get() == 0) {
+                flushRequested = false;
+            }
+        } finally {
+            dispatchers.decrementAndGet();
+        }
+        // operations submitted just before the decrement may have found no room for a dispatcher.
+        if (shouldDispatch()) {
+            startDispatcher();
+        } else if (pendingCount.get() > 0) {
+            // operations left behind may not have a linger timer yet.
+            scheduleLinger();
+        }
+    }
+
+    /**
+     * dispatch all pending operations.
+     */
+    private void flush() {
+        lingerScheduled.set(false);
+        if (pendingCount.get() > 0) {
+            flushRequested = true;
+            startDispatcher();
+        }
+    }
+
+    private List<Operation<I, V>> poll() {
+        List<Operation<I, V>> batch = new ArrayList<>();
+        Operation<I, V> operation;
+        while (batch.size() < maxBatchSize && (operation = pending.poll()) != null) {
+            batch.add(operation);
+        }
+        pendingCount.addAndGet(-batch.size());
+        return batch;
+    }
+
+    private void execute(List<Operation<I, V>> batch) {
+        List<I> items = new ArrayList<>(batch.size());
+        for (Operation<I, V> operation : batch) {
+            items.add(operation.item);
+        }
+        List<V> results;
+        try {
+            results = pool.supply(obj -> function.apply(obj, items));
+        } catch (Throwable e) {
+            batch.forEach(it -> it.future.completeExceptionally(e));
+            return;
+        }
+        if (results == null || results.size() != batch.size()) {
+            IllegalStateException e = new IllegalStateException("expect " + batch.size()
+                    + " results, but got " + (results == null ? null : results.size()) + ".");
+            batch.forEach(it -> it.future.completeExceptionally(e));
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(results.get(i));
+        }
+    }
+
+    /**
+     * dispatch all pending operations and wait until the linger timer stopped,
+     * the underlying pool would not be closed.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        shutdownAndAwaitTermination(lingerExecutor, 1, DAYS);
+        flush();
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    public static <T> BatchingPoolBuilder<T> builder(@Nonnull Pool<T> pool) {
+        return new BatchingPoolBuilder<>(checkNotNull(pool));
+    }
+
+    private static final class Operation<I, V> {
+
+        private final I item;
+        private final CompletableFuture<V> future;
+
+        Operation(I item, CompletableFuture<V> future) {
+            this.item = item;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.time.Duration.ofMillis;
+
+import java.time.Duration;
+import java.util.List;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.github.phantomthief.pool.Pool;
+import com.github.phantomthief.util.ThrowableBiFunction;
+
+public class BatchingPoolBuilder<T> {
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    private static final Duration DEFAULT_LINGER = ofMillis(1);
+
+    final Pool<T> pool;
+    int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    Duration linger = DEFAULT_LINGER;
+    /**
+     * {@code 0} if it follows the size of the pool.
+     */
+    int maxConcurrentBatches;
+
+    BatchingPoolBuilder(Pool<T> pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * default value is {@link #DEFAULT_MAX_BATCH_SIZE}
+     */
+    @CheckReturnValue
+    @Nonnull
+    public BatchingPoolBuilder<T> maxBatchSize(@Nonnegative int value) {
+        checkArgument(value > 0);
+        this.maxBatchSize = value;
+        return this;
+    }
+
+    /**
+     * how long the first operation of a batch would wait for more operations to join it.
+     * a batch is dispatched once it is full, or the linger time passed.
+     * default value is {@link #DEFAULT_LINGER}
+     */
+    @CheckReturnValue
+    @Nonnull
+    public BatchingPoolBuilder<T> linger(@Nonnull Duration value) {
+        checkArgument(!value.isNegative());
+        this.linger = value;
+        return this;
+    }
+
+    /**
+     * how many batches could be executed at the same time, each by a dispatcher which keeps
+     * draining pending operations, so the threads never grow with the load.
+     * by default it follows {@link ConcurrencyAwarePool#CURRENT_COUNT} of the pool, so each
+     * object could run one batch at a time, or {@code 1} if the pool does not report it.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public BatchingPoolBuilder<T> maxConcurrentBatches(@Nonnegative int value) {
+        checkArgument(value > 0);
+        this.maxConcurrentBatches = value;
+        return this;
+    }
+
+    /**
+     * @param function called with a pooled object and a batch of operations, must return one
+     *                 result for each operation, in the same order.
+     */
+    @Nonnull
+    public <I, V> BatchingPool<T, I, V> build(
+            @Nonnull ThrowableBiFunction<T, List<I>, List<V>, Exception> function) {
+        return new BatchingPool<>(this, checkNotNull(function));
+    }
+}
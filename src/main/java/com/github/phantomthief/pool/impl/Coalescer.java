@@ -0,0 +1,118 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.github.phantomthief.util.ThrowableSupplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * single flight of calls by key: concurrent calls with the same key share one execution,
+ * and all of them get its result or its exception.
+ * optionally, a finished result is reused by later calls for a short while.
+ */
+@ThreadSafe
+class Coalescer<V> {
+
+    private final ConcurrentMap<Object, Flight<V>> inflight = new ConcurrentHashMap<>();
+    /**
+     * {@link Optional#empty()} for a {@code null} result.
+     */
+    private final Cache<Object, Optional<V>> results;
+
+    Coalescer() {
+        this.results = null;
+    }
+
+    /**
+     * @param reuse how long a finished result could be reused.
+     * @param maxSize the max reused results, the least recently used ones are evicted first.
+     */
+    Coalescer(@Nonnull Duration reuse, @Nonnegative long maxSize) {
+        checkArgument(!reuse.isNegative() && !reuse.isZero());
+        checkArgument(maxSize > 0);
+        this.results = CacheBuilder.newBuilder()
+                .expireAfterWrite(reuse.toNanos(), TimeUnit.NANOSECONDS)
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    /**
+     * @throws IllegalStateException if it was called again with the same key by the call itself,
+     *         which would wait for its own result forever.
+     */
+    <X extends Throwable> V coalesce(@Nonnull Object key, @Nonnull ThrowableSupplier<V, X> call)
+            throws X {
+        checkNotNull(key);
+        Optional<V> reused = reused(key);
+        if (reused != null) {
+            return reused.orElse(null);
+        }
+        Flight<V> mine = new Flight<>();
+        Flight<V> existing = inflight.putIfAbsent(key, mine);
+        if (existing != null) {
+            if (existing.leader == Thread.currentThread()) {
+                throw new IllegalStateException("recursive coalesced call of key:" + key);
+            }
+            return existing.join();
+        }
+        try {
+            // the previous leader may have published its result just before it left.
+            reused = reused(key);
+            V value;
+            if (reused != null) {
+                value = reused.orElse(null);
+            } else {
+                value = call.get();
+                if (results != null) {
+                    results.put(key, Optional.ofNullable(value));
+                }
+            }
+            mine.future.complete(value);
+            return value;
+        } catch (Throwable e) {
+            mine.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    /**
+     * @return {@code null} if there is no result to reuse.
+     */
+    @Nullable
+    private Optional<V> reused(Object key) {
+        return results == null ? null : results.getIfPresent(key);
+    }
+
+    private static final class Flight<V> {
+
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private final Thread leader = Thread.currentThread();
+
+        @Nullable
+        private <X extends Throwable> V join() throws X {
+            try {
+                return getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                throw MoreThrowables.<X> sneakyThrow(e.getCause());
+            }
+        }
+    }
+}
@@ -19,6 +19,16 @@ public interface ConcurrencyAdjustStrategy {
     @Nullable
     AdjustResult adjust(@Nonnull Collection<? extends ConcurrencyInfo> current) throws Throwable;
 
+    /**
+     * borrowing an object whose concurrency already reached this value would trigger an early
+     * evaluation, see {@link ConcurrencyAwarePoolBuilder#eagerExtend}.
+     *
+     * @return {@link Integer#MAX_VALUE} if the strategy has no such threshold.
+     */
+    default int extendThreshold() {
+        return Integer.MAX_VALUE;
+    }
+
     class AdjustResult {
 
         private final Collection<ConcurrencyInfo> evict;
@@ -33,11 +43,11 @@ public interface ConcurrencyAdjustStrategy {
         }
 
         @Nullable
-        Collection<ConcurrencyInfo> getEvict() {
+        public Collection<ConcurrencyInfo> getEvict() {
             return evict;
         }
 
-        int getCreate() {
+        public int getCreate() {
             return create;
         }
     }
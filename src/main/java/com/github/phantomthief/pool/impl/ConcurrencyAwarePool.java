@@ -1,30 +1,58 @@
 package com.github.phantomthief.pool.impl;
 
 import static com.github.phantomthief.pool.impl.SharedResource.cleanupExecutor;
+import static com.github.phantomthief.pool.impl.SharedResource.eventExecutor;
+import static com.github.phantomthief.pool.impl.SharedResource.hedgeExecutor;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.throwIfUnchecked;
-import static com.google.common.util.concurrent.MoreExecutors.shutdownAndAwaitTermination;
+import static com.google.common.collect.Lists.partition;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
 import static java.lang.Math.min;
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
+import static java.util.Comparator.comparingDouble;
+import static java.util.Collections.emptyList;
 import static java.util.Comparator.comparingInt;
 import static java.util.Optional.ofNullable;
-import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
-import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.slf4j.Logger;
@@ -35,6 +63,7 @@ import com.github.phantomthief.pool.Pooled;
 import com.github.phantomthief.pool.StatsKey;
 import com.github.phantomthief.pool.impl.ConcurrencyAdjustStrategy.AdjustResult;
 import com.github.phantomthief.util.ThrowableConsumer;
+import com.github.phantomthief.util.ThrowableFunction;
 import com.github.phantomthief.util.ThrowableSupplier;
 import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -50,89 +79,486 @@ public class ConcurrencyAwarePool<T> implements Pool<T> {
 
     public static final StatsKey<Integer> CURRENT_COUNT = new SimpleStatsKey<>(Integer.class);
     public static final StatsKey<Integer> CURRENT_CONCURRENCY = new SimpleStatsKey<>(Integer.class);
+    /**
+     * priorities without {@link ConcurrencyAwarePoolBuilder#priorityShare} share one unlimited lane,
+     * which is reported as this priority in {@link #PRIORITY_STATS}.
+     */
+    public static final int OTHER_PRIORITIES = Integer.MIN_VALUE;
+    /**
+     * how many sampled borrows were detected as leaked, see {@link ConcurrencyAwarePoolBuilder#leakDetection}.
+     */
+    public static final StatsKey<Long> LEAKED_COUNT = new SimpleStatsKey<>(Long.class);
+    /**
+     * how many leaked borrows had their concurrency released, only if reclaim was enabled
+     * in {@link ConcurrencyAwarePoolBuilder#leakDetection(int, Duration, boolean)}.
+     */
+    public static final StatsKey<Long> RECLAIMED_COUNT = new SimpleStatsKey<>(Long.class);
+    /**
+     * stats of each priority used by {@link #borrow(int)} or {@link #supply(int, ThrowableFunction)},
+     * sorted by priority, unconfigured priorities are merged into {@link #OTHER_PRIORITIES}.
+     */
+    @SuppressWarnings("unchecked")
+    public static final StatsKey<Map<Integer, PriorityStats>> PRIORITY_STATS = new SimpleStatsKey<>(
+            (Class<Map<Integer, PriorityStats>>) (Class<?>) Map.class);
+
+    private static final double HEDGE_DELAY_PERCENTILE = 95;
+    private static final long MIN_LEAK_CHECK_PERIOD_IN_MS = 100;
+    /**
+     * smaller pools are scanned on each borrow, the index only wins clearly from this size
+     * at any number of contending threads, see {@code ConcurrencyIndexBenchmark}.
+     */
+    private static final int INDEX_MIN_SIZE = 256;
 
     private final ThrowableConsumer<T, Exception> destroy;
+    private final PoolEventListener<? super T> listener;
+    private final long slowBorrowThresholdInNanos;
 
     private final List<CounterWrapper> currentAvailable;
+    private final ConcurrencyIndex<CounterWrapper> concurrencyIndex = new ConcurrencyIndex<>();
+    private final List<CounterWrapper> availableView = new AvailableView();
+
+    private final ThrowableSupplier<T, Exception> factory;
+    private final ConcurrencyAdjustStrategy strategy;
+    /**
+     * only accessed in {@link #scheduledExecutor}, or before it was started.
+     */
+    private final TimeOfDayProfile profile;
+    private final int minIdle;
+    private final int maxSize;
+
+    private static final AtomicInteger POOL_SEQUENCE = new AtomicInteger();
 
-    private final ScheduledExecutorService scheduledExecutor = newSingleThreadScheduledExecutor(
+    private final String name;
+    private final Runnable unregisterRecorder;
+
+    /**
+     * completed once the last task of {@link #scheduledExecutor} was finished after shutdown.
+     */
+    private final CompletableFuture<Void> adjustTerminated = new CompletableFuture<>();
+    private final ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1,
             new ThreadFactoryBuilder()
                     .setNameFormat("concurrency-pool-adjust-%d")
-                    .build());
+                    .build()) {
+
+        @Override
+        protected void terminated() {
+            adjustTerminated.complete(null);
+        }
+    };
+
+    private final long evaluatePeriodInMs;
+    private final long maxEvaluatePeriodInMs;
+    private long currentEvaluatePeriodInMs;
+    private volatile ScheduledFuture<?> nextAdjust;
+
+    private final int initialLimit;
+    private final int maxLimit;
+    private final Comparator<CounterWrapper> loadOrder;
+
+    private final HoldTimeRecorder holdTimes = new HoldTimeRecorder(HEDGE_DELAY_PERCENTILE);
+    private final HedgeBudget hedgeBudget;
+
+    /**
+     * only configured priorities, never modified after the constructor.
+     */
+    private final Map<Integer, PriorityLane> lanes = new HashMap<>();
+    private final PriorityLane otherLane = new PriorityLane(OTHER_PRIORITIES, 1.0D);
+    private final long priorityWaitTimeoutInNanos;
+    private final int objectCapacity;
+
+    private final Path sizeSnapshotFile;
+    private final Duration sizeSnapshotMaxAge;
+    private final long persistPeriodInMs;
+    private long lastPersist;
+
+    private final int leakSamplingInterval;
+    private final long leakThresholdInNanos;
+    private final boolean reclaimLeaked;
+    private final Set<PooledHandle> trackedHandles = ConcurrentHashMap.newKeySet();
+    private final LongAdder leakedCount = new LongAdder();
+    private final LongAdder reclaimedCount = new LongAdder();
+
+    private final Coalescer<Object> coalescer;
+
+    private final int replaceParallelism;
+    private final Object replaceLock = new Object();
+
+    private final int wakeUpThreshold;
+    private final long wakeUpIntervalInNanos;
+    private final AtomicLong lastWakeUp;
 
     private final Map<StatsKey<?>, Supplier<?>> stats;
 
     private volatile boolean closing = false;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     /**
      * see {@link ConcurrencyAwarePool#builder()}
      */
     ConcurrencyAwarePool(ConcurrencyAwarePoolBuilder<T> builder) {
+        this.name = builder.name != null ? builder.name : "pool-" + POOL_SEQUENCE.incrementAndGet();
         this.destroy = builder.destroy;
+        this.listener = builder.eventListener;
+        this.slowBorrowThresholdInNanos = builder.slowBorrowThreshold.toNanos();
 
-        ThrowableSupplier<T, Exception> factory = builder.factory;
-        int minIdle = builder.minIdle;
-        int maxSize = builder.maxSize;
+        this.factory = builder.factory;
+        this.strategy = builder.buildStrategy();
+        this.profile = strategy instanceof ScheduledAdjustStrategy
+                       ? ((ScheduledAdjustStrategy) strategy).getProfile() : null;
+        this.minIdle = builder.minIdle;
+        this.maxSize = builder.maxSize;
+        this.evaluatePeriodInMs = builder.evaluatePeriod.toMillis();
+        this.maxEvaluatePeriodInMs = builder.maxEvaluatePeriod == null ? evaluatePeriodInMs
+                                                                       : builder.maxEvaluatePeriod.toMillis();
+        if (builder.eagerExtendInterval != null && strategy != null) {
+            this.wakeUpThreshold = strategy.extendThreshold();
+            this.wakeUpIntervalInNanos = builder.eagerExtendInterval.toNanos();
+        } else {
+            this.wakeUpThreshold = Integer.MAX_VALUE;
+            this.wakeUpIntervalInNanos = 0;
+        }
+        // a cold pool could wake up the adjust right after it was built.
+        this.lastWakeUp = new AtomicLong(nanoTime() - wakeUpIntervalInNanos);
+        this.hedgeBudget = new HedgeBudget(builder.hedgeBudgetRatio);
+        this.sizeSnapshotFile = builder.sizeSnapshotFile;
+        this.sizeSnapshotMaxAge = builder.sizeSnapshotMaxAge;
+        this.persistPeriodInMs = builder.sizeSnapshotPeriod == null ? 0 : builder.sizeSnapshotPeriod.toMillis();
+        PoolSizeSnapshot snapshot = sizeSnapshotFile == null ? null : PoolSizeSnapshot.read(sizeSnapshotFile);
+        // a daily pattern is still useful after a long downtime, so it's restored at any age.
+        if (profile != null && snapshot != null && profile.restore(snapshot.getProfile())) {
+            logger.info("restore time-of-day profile from snapshot:{}", sizeSnapshotFile);
+        }
+
+        this.maxLimit = builder.maxConcurrencyLimit;
+        if (builder.initialConcurrencyLimit > 0 && snapshot != null
+                && snapshot.getConcurrencyLimit() > 0) {
+            this.initialLimit = min(maxLimit, snapshot.getConcurrencyLimit());
+        } else {
+            this.initialLimit = builder.initialConcurrencyLimit;
+        }
+        if (initialLimit > 0) {
+            this.loadOrder = comparingDouble(CounterWrapper::load);
+        } else {
+            this.loadOrder = comparingInt(CounterWrapper::currentConcurrency);
+        }
+
+        this.replaceParallelism = builder.replaceParallelism;
+        this.coalescer = builder.coalescedResultReuse == null ? new Coalescer<>()
+                                                              : new Coalescer<>(builder.coalescedResultReuse,
+                                                                      builder.coalescedResultMaxSize);
+        this.leakSamplingInterval = builder.leakSamplingInterval;
+        this.leakThresholdInNanos = builder.leakThreshold == null ? 0 : builder.leakThreshold.toNanos();
+        this.reclaimLeaked = builder.reclaimLeaked;
+        this.priorityWaitTimeoutInNanos = builder.priorityWaitTimeout.toNanos();
+        this.objectCapacity = strategy == null ? Integer.MAX_VALUE : strategy.extendThreshold();
+        builder.priorityShares.forEach((priority, share) -> lanes.put(priority,
+                new PriorityLane(priority, share)));
 
         currentAvailable = new ArrayList<>(maxSize);
 
         for (int i = 0; i < minIdle; i++) {
             try {
-                currentAvailable.add(new CounterWrapper(factory.get()));
+                addAvailable(create(factory));
             } catch (Throwable e) {
                 throwIfUnchecked(e);
                 throw new RuntimeException(e);
             }
         }
+        refreshIndex();
+
+        scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduledExecutor.setRemoveOnCancelPolicy(true);
+        currentEvaluatePeriodInMs = evaluatePeriodInMs;
+        if (snapshot != null) {
+            int toCreate = min(maxSize, snapshot.decayedSize(minIdle, currentTimeMillis(),
+                    sizeSnapshotMaxAge)) - currentAvailable.size();
+            if (toCreate > 0) {
+                logger.info("pre-warm {} objects from snapshot:{}", toCreate, sizeSnapshotFile);
+                scheduledExecutor.execute(() -> preWarm(toCreate));
+            }
+        }
+        lastPersist = currentTimeMillis();
+        scheduleAdjust();
+        if (leakThresholdInNanos > 0) {
+            long checkPeriodInMs = Math.max(MIN_LEAK_CHECK_PERIOD_IN_MS,
+                    NANOSECONDS.toMillis(leakThresholdInNanos) / 2);
+            scheduledExecutor.scheduleWithFixedDelay(this::detectLeaks, checkPeriodInMs,
+                    checkPeriodInMs, MILLISECONDS);
+        }
 
-        long periodInMs = builder.evaluatePeriod.toMillis();
-        ConcurrencyAdjustStrategy strategy = builder.strategy;
-        scheduledExecutor.scheduleWithFixedDelay(() -> {
-            List<CounterWrapper> toClosed = null;
+        stats = buildStats();
+        unregisterRecorder = PoolFlightRecorder.registerPeriodic(name, currentAvailable::size,
+                this::estimateCurrentConcurrency);
+    }
+
+    /**
+     * only run in {@link #scheduledExecutor}, objects are created in parallel.
+     */
+    private void preWarm(int count) {
+        List<CompletableFuture<CounterWrapper>> creating = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            creating.add(createAsync());
+        }
+        for (CompletableFuture<CounterWrapper> future : creating) {
             try {
-                if (strategy != null) {
-                    AdjustResult adjust = strategy.adjust(currentAvailable);
-                    if (adjust == null) {
-                        return;
-                    }
-                    int realToCreate = min(adjust.getCreate(), maxSize - currentAvailable.size());
-                    for (int i = 0; i < realToCreate; i++) {
-                        currentAvailable.add(new CounterWrapper(factory.get()));
-                    }
+                CounterWrapper wrapper = getUninterruptibly(future);
+                if (closing || currentAvailable.size() >= maxSize) {
+                    closeAsync(wrapper);
+                } else {
+                    addAvailable(wrapper);
+                }
+            } catch (ExecutionException e) {
+                logger.error("fail to pre-warm object.", e.getCause());
+            }
+        }
+    }
 
-                    if (adjust.getEvict() != null) {
-                        int toRemoveCount = Math.max(0, currentAvailable.size() - minIdle);
-                        for (ConcurrencyInfo item : adjust.getEvict()) {
-                            if (toRemoveCount <= 0) {
-                                break;
-                            }
-                            if (currentAvailable.removeIf(it -> it == item)) {
-                                toRemoveCount--;
-                                if (toClosed == null) {
-                                    toClosed = new ArrayList<>();
-                                }
-                                toClosed.add(CounterWrapper.class.cast(item));
-                            }
+    /**
+     * only run in {@link #scheduledExecutor} or after it was terminated.
+     */
+    private void persistSize() {
+        int concurrencyLimit = 0;
+        if (initialLimit > 0) {
+            concurrencyLimit = (int) currentAvailable.stream()
+                    .mapToInt(CounterWrapper::concurrencyLimit)
+                    .average()
+                    .orElse(0);
+        }
+        long now = currentTimeMillis();
+        new PoolSizeSnapshot(currentAvailable.size(), concurrencyLimit, now,
+                profile == null ? null : profile.snapshot()).write(sizeSnapshotFile);
+        lastPersist = now;
+    }
+
+    /**
+     * only run in {@link #scheduledExecutor}.
+     */
+    private void runAdjust() {
+        refreshIndex();
+        boolean changed = adjust();
+        if (sizeSnapshotFile != null && currentTimeMillis() - lastPersist >= persistPeriodInMs) {
+            persistSize();
+        }
+        if (changed) {
+            currentEvaluatePeriodInMs = evaluatePeriodInMs;
+        } else {
+            currentEvaluatePeriodInMs = min(currentEvaluatePeriodInMs * 2, maxEvaluatePeriodInMs);
+        }
+        scheduleAdjust();
+    }
+
+    private void scheduleAdjust() {
+        try {
+            nextAdjust = scheduledExecutor.schedule(this::runAdjust, currentEvaluatePeriodInMs,
+                    MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // pool is closing.
+        }
+    }
+
+    /**
+     * @return {@code true} if any object was created or evicted.
+     */
+    private boolean adjust() {
+        if (strategy == null) {
+            return false;
+        }
+        List<CounterWrapper> toClosed = null;
+        boolean recording = PoolFlightRecorder.isEnabled();
+        long start = recording ? nanoTime() : 0;
+        AdjustResult adjust = null;
+        try {
+            List<ConcurrencyInfo> snapshot = listener == null ? null : snapshot();
+            adjust = strategy.adjust(availableView);
+            AdjustResult result = adjust;
+            if (snapshot != null) {
+                fireEvent(it -> it.onAdjust(result, snapshot));
+            }
+            if (adjust == null) {
+                return false;
+            }
+            boolean changed = false;
+            int realToCreate = min(adjust.getCreate(), maxSize - currentAvailable.size());
+            for (int i = 0; i < realToCreate && !closing; i++) {
+                CounterWrapper created = create(factory);
+                if (closing) {
+                    // the close would not wait for a slow creation.
+                    closeAsync(created);
+                    break;
+                }
+                addAvailable(created);
+                changed = true;
+            }
+
+            if (adjust.getEvict() != null) {
+                int toRemoveCount = Math.max(0, currentAvailable.size() - minIdle);
+                for (ConcurrencyInfo item : adjust.getEvict()) {
+                    if (toRemoveCount <= 0) {
+                        break;
+                    }
+                    if (currentAvailable.removeIf(it -> it == item)) {
+                        CounterWrapper.class.cast(item).deactivate();
+                        toRemoveCount--;
+                        if (toClosed == null) {
+                            toClosed = new ArrayList<>();
                         }
+                        toClosed.add(CounterWrapper.class.cast(item));
+                        changed = true;
                     }
                 }
+            }
+            return changed;
+        } catch (Throwable e) {
+            logger.error("", e);
+            return true;
+        } finally {
+            closePending(toClosed);
+            if (recording) {
+                PoolFlightRecorder.adjust(name, nanoTime() - start,
+                        adjust == null ? 0 : adjust.getCreate(),
+                        adjust == null || adjust.getEvict() == null ? 0 : adjust.getEvict().size(),
+                        currentAvailable.size());
+            }
+        }
+    }
+
+    /**
+     * run the adjust immediately, debounced by {@link ConcurrencyAwarePoolBuilder#eagerExtend}.
+     */
+    private void wakeUp() {
+        long now = nanoTime();
+        long last = lastWakeUp.get();
+        if (now - last < wakeUpIntervalInNanos || !lastWakeUp.compareAndSet(last, now)) {
+            return;
+        }
+        try {
+            scheduledExecutor.execute(() -> {
+                ScheduledFuture<?> pending = nextAdjust;
+                // if the cancel failed, the adjust was just finished and it has rescheduled itself.
+                if (pending != null && pending.cancel(false)) {
+                    currentEvaluatePeriodInMs = evaluatePeriodInMs;
+                    runAdjust();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // pool is closing.
+        }
+    }
+
+    /**
+     * only run in {@link #scheduledExecutor}, or in the constructor.
+     */
+    private void refreshIndex() {
+        concurrencyIndex.enable(currentAvailable.size() >= INDEX_MIN_SIZE);
+        concurrencyIndex.refresh();
+    }
+
+    /**
+     * only run in {@link #scheduledExecutor}, or in the constructor.
+     */
+    private void addAvailable(CounterWrapper wrapper) {
+        currentAvailable.add(wrapper);
+        wrapper.activate();
+    }
+
+    private CounterWrapper create(ThrowableSupplier<T, Exception> factory) throws Exception {
+        boolean recording = PoolFlightRecorder.isEnabled();
+        if (listener == null && !recording) {
+            return new CounterWrapper(factory.get());
+        }
+        long start = nanoTime();
+        T obj;
+        try {
+            obj = factory.get();
+        } catch (Throwable e) {
+            if (recording) {
+                PoolFlightRecorder.create(name, nanoTime() - start, true);
+            }
+            if (listener != null) {
+                fireEvent(it -> it.onCreateFailed(e));
+            }
+            throw e;
+        }
+        long cost = nanoTime() - start;
+        if (recording) {
+            PoolFlightRecorder.create(name, cost, false);
+        }
+        if (listener != null) {
+            fireEvent(it -> it.onCreate(obj, cost));
+        }
+        return new CounterWrapper(obj);
+    }
+
+    private List<ConcurrencyInfo> snapshot() {
+        List<ConcurrencyInfo> result = new ArrayList<>(currentAvailable.size());
+        for (CounterWrapper wrapper : currentAvailable) {
+            int concurrency = wrapper.currentConcurrency();
+            result.add(() -> concurrency);
+        }
+        return result;
+    }
+
+    private void fireEvent(Consumer<PoolEventListener<? super T>> event) {
+        eventExecutor().execute(() -> {
+            try {
+                event.accept(listener);
             } catch (Throwable e) {
                 logger.error("", e);
-            } finally {
-                closePending(toClosed);
             }
-        }, periodInMs, periodInMs, MILLISECONDS);
-
-        stats = buildStats();
+        });
     }
 
     private Map<StatsKey<?>, Supplier<?>> buildStats() {
         Map<StatsKey<?>, Supplier<?>> map = new IdentityHashMap<>();
+        map.put(PRIORITY_STATS, this::priorityStats);
+        map.put(LEAKED_COUNT, leakedCount::sum);
+        map.put(RECLAIMED_COUNT, reclaimedCount::sum);
         map.put(CURRENT_COUNT, currentAvailable::size);
         map.put(CURRENT_CONCURRENCY, this::estimateCurrentConcurrency);
         return map;
     }
 
+    private Map<Integer, PriorityStats> priorityStats() {
+        long capacity = capacity();
+        Map<Integer, PriorityStats> result = new TreeMap<>();
+        lanes.forEach((priority, lane) -> result.put(priority, lane.stats(capacity)));
+        PriorityStats other = otherLane.stats(capacity);
+        if (other.getBorrowed() > 0) {
+            result.put(OTHER_PRIORITIES, other);
+        }
+        return result;
+    }
+
+    /**
+     * the concurrency all objects could serve, shared by priorities.
+     */
+    private long capacity() {
+        if (initialLimit <= 0) {
+            return (long) objectCapacity * currentAvailable.size();
+        }
+        do {
+            try {
+                return currentAvailable.stream()
+                        .filter(it -> !it.isClosing())
+                        .mapToLong(CounterWrapper::concurrencyLimit)
+                        .sum();
+            } catch (ConcurrentModificationException e) {
+                // ignore and retry.
+            }
+        } while (true);
+    }
+
+    private PriorityLane acquireLane(int priority) {
+        if (closing) {
+            throw new IllegalStateException("pool is closed.");
+        }
+        PriorityLane lane = lanes.getOrDefault(priority, otherLane);
+        if (!lane.acquire(this::capacity, priorityWaitTimeoutInNanos)) {
+            throw new RejectedExecutionException("priority[" + priority + "] used up its share.");
+        }
+        return lane;
+    }
+
     private int estimateCurrentConcurrency() {
         do {
             try {
@@ -147,39 +573,415 @@ public class ConcurrencyAwarePool<T> implements Pool<T> {
         if (toClosed == null) {
             return;
         }
-        for (CounterWrapper item : toClosed) {
-            cleanupExecutor().execute(() -> {
+        toClosed.forEach(this::closeAsync);
+    }
+
+    /**
+     * the returned future never fails, errors would be logged.
+     */
+    private CompletableFuture<Void> closeAsync(CounterWrapper item) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                item.close();
+            } catch (Throwable e) {
+                logger.error("", e);
+            }
+        }, cleanupExecutor());
+    }
+
+    private CompletableFuture<CounterWrapper> createAsync() {
+        CompletableFuture<CounterWrapper> result = new CompletableFuture<>();
+        cleanupExecutor().execute(() -> {
+            try {
+                result.complete(create(factory));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * run on {@link #scheduledExecutor}, the only thread which modifies {@link #currentAvailable}.
+     */
+    private <V> V onAdjustThread(Callable<V> callable) {
+        try {
+            return getUninterruptibly(scheduledExecutor.submit(callable));
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("pool is closed.");
+        } catch (ExecutionException e) {
+            throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * objects are replaced in waves of {@link ConcurrencyAwarePoolBuilder#replaceParallelism},
+     * each wave creates all its new objects first, swaps them in place of the old ones,
+     * then waits until the old ones were drained and destroyed.
+     * objects whose replacement failed to create are kept, and the first failure would be
+     * thrown after all waves finished.
+     */
+    @Override
+    public void replaceAll(@Nonnull Predicate<? super T> predicate) {
+        checkNotNull(predicate);
+        synchronized (replaceLock) {
+            if (closing) {
+                throw new IllegalStateException("pool is closed.");
+            }
+            List<CounterWrapper> targets = onAdjustThread(() -> currentAvailable.stream()
+                    .filter(it -> predicate.test(it.get()))
+                    .collect(toList()));
+            Throwable failure = null;
+            for (List<CounterWrapper> wave : partition(targets, replaceParallelism)) {
+                List<CompletableFuture<CounterWrapper>> creating = wave.stream()
+                        .map(it -> createAsync())
+                        .collect(toList());
+                List<CounterWrapper> olds = new ArrayList<>(wave.size());
+                List<CounterWrapper> replacements = new ArrayList<>(wave.size());
+                for (int i = 0; i < wave.size(); i++) {
+                    try {
+                        replacements.add(getUninterruptibly(creating.get(i)));
+                        olds.add(wave.get(i));
+                    } catch (ExecutionException e) {
+                        logger.error("fail to create replacement for:{}", wave.get(i).get(), e.getCause());
+                        if (failure == null) {
+                            failure = e.getCause();
+                        }
+                    }
+                }
+                List<CounterWrapper> toClose;
                 try {
-                    item.close();
-                } catch (Throwable e) {
-                    logger.error("", e);
+                    toClose = onAdjustThread(() -> {
+                        List<CounterWrapper> result = new ArrayList<>(olds.size());
+                        for (int i = 0; i < olds.size(); i++) {
+                            int index = currentAvailable.indexOf(olds.get(i));
+                            if (index >= 0 && !closing) {
+                                // set is not a structural modification, borrowing is not disturbed.
+                                currentAvailable.set(index, replacements.get(i));
+                                replacements.get(i).activate();
+                                olds.get(i).deactivate();
+                                result.add(olds.get(i));
+                            } else {
+                                // the old one was evicted already, or the pool is closing.
+                                result.add(replacements.get(i));
+                            }
+                        }
+                        return result;
+                    });
+                } catch (IllegalStateException e) {
+                    replacements.forEach(this::closeAsync);
+                    throw e;
                 }
-            });
+                CompletableFuture.allOf(toClose.stream()
+                        .map(this::closeAsync)
+                        .toArray(CompletableFuture[]::new)).join();
+            }
+            if (failure != null) {
+                throwIfUnchecked(failure);
+                throw new RuntimeException(failure);
+            }
         }
     }
 
+    @Override
+    public boolean supportsReplace() {
+        return true;
+    }
+
     @Nonnull
     @Override
     public Pooled<T> borrow() {
+        CounterWrapper wrapper = borrowWrapper(null);
+        if (leakThresholdInNanos > 0 && shouldTrackLeak()) {
+            return track(new PooledHandle(wrapper, null));
+        }
+        return wrapper;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the priority used up its share after
+     * {@link ConcurrencyAwarePoolBuilder#priorityWaitTimeout}.
+     */
+    @Nonnull
+    @Override
+    public Pooled<T> borrow(int priority) {
+        // the wait in the lane is a part of the borrow.
+        long start = borrowStart();
+        PriorityLane lane = acquireLane(priority);
+        try {
+            PooledHandle handle = new PooledHandle(borrowWrapper(null, start), lane);
+            if (leakThresholdInNanos > 0 && shouldTrackLeak()) {
+                track(handle);
+            }
+            return handle;
+        } catch (Throwable e) {
+            lane.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public <V, X extends Throwable> V supply(ThrowableFunction<T, V, X> function) throws X {
+        return supply(borrowWrapper(null), function);
+    }
+
+    /**
+     * the result could be reused for a while, see {@link ConcurrencyAwarePoolBuilder#coalescedResultReuse}.
+     */
+    @Override
+    public <V, X extends Throwable> V supplyCoalesced(@Nonnull Object key,
+            ThrowableFunction<T, V, X> function) throws X {
+        // keys are not typed, a key is always used with the same type of result.
+        @SuppressWarnings("unchecked")
+        V result = (V) coalescer.coalesce(key, () -> supply(function));
+        return result;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the priority used up its share after
+     * {@link ConcurrencyAwarePoolBuilder#priorityWaitTimeout}.
+     */
+    @Override
+    public <V, X extends Throwable> V supply(int priority, ThrowableFunction<T, V, X> function)
+            throws X {
+        long start = borrowStart();
+        PriorityLane lane = acquireLane(priority);
+        try {
+            return supply(borrowWrapper(null, start), function);
+        } finally {
+            lane.release();
+        }
+    }
+
+    /**
+     * run the function on a borrowed object, and return it afterwards.
+     */
+    private <V, X extends Throwable> V supply(CounterWrapper wrapper,
+            ThrowableFunction<T, V, X> function) throws X {
+        VegasConcurrencyLimit limit = wrapper.limit;
+        int inflight = limit == null ? 0 : wrapper.currentConcurrency();
+        long start = nanoTime();
+        boolean success = false;
+        try {
+            V result = function.apply(wrapper.get());
+            success = true;
+            return result;
+        } finally {
+            wrapper.leave();
+            long cost = nanoTime() - start;
+            holdTimes.record(cost);
+            if (limit != null && success) {
+                limit.onSample(cost, inflight);
+            }
+        }
+    }
+
+    @Override
+    public <V, X extends Throwable> V supplyHedged(ThrowableFunction<T, V, X> function) throws X {
+        long delay = holdTimes.get();
+        if (delay < 0) {
+            return supply(function);
+        }
+        return supplyHedged(function, delay);
+    }
+
+    /**
+     * attempts run on a shared executor with at most a few threads per cpu, once it's saturated,
+     * the primary attempt runs in the caller thread and no hedge is sent, so the call degrades
+     * to {@link #supply}.
+     */
+    @Override
+    public <V, X extends Throwable> V supplyHedged(ThrowableFunction<T, V, X> function,
+            Duration hedgeDelay) throws X {
+        return supplyHedged(function, hedgeDelay.toNanos());
+    }
+
+    private <V, X extends Throwable> V supplyHedged(ThrowableFunction<T, V, X> function,
+            long hedgeDelayInNanos) throws X {
+        checkNotNull(function);
+        hedgeBudget.deposit();
+        CompletableFuture<V> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        CounterWrapper primary = borrowWrapper(null);
+        Runnable primaryAttempt = attempt(primary, function, result, pending, firstFailure);
+        try {
+            hedgeExecutor().execute(primaryAttempt);
+        } catch (RejectedExecutionException e) {
+            primaryAttempt.run();
+        }
+        try {
+            return getUninterruptibly(result, hedgeDelayInNanos, NANOSECONDS);
+        } catch (TimeoutException e) {
+            // reserved before the primary could be seen as the last attempt.
+            pending.incrementAndGet();
+            CounterWrapper secondary = null;
+            if (!result.isDone() && hedgeBudget.tryAcquire()) {
+                secondary = borrowWrapper(primary);
+                if (secondary == null) {
+                    hedgeBudget.refund();
+                }
+            }
+            boolean hedged = false;
+            if (secondary != null) {
+                try {
+                    hedgeExecutor().execute(
+                            attempt(secondary, function, result, pending, firstFailure));
+                    hedged = true;
+                } catch (RejectedExecutionException ex) {
+                    // in the caller thread, it would wait for the hedge even if the primary won.
+                    secondary.leave();
+                    hedgeBudget.refund();
+                }
+            }
+            if (!hedged && pending.decrementAndGet() == 0) {
+                result.completeExceptionally(firstFailure.get());
+            }
+            return getResult(result);
+        } catch (ExecutionException e) {
+            throw MoreThrowables.<X> sneakyThrow(e.getCause());
+        }
+    }
+
+    private <V, X extends Throwable> Runnable attempt(CounterWrapper wrapper,
+            ThrowableFunction<T, V, X> function, CompletableFuture<V> result,
+            AtomicInteger pending, AtomicReference<Throwable> firstFailure) {
+        return () -> {
+            try {
+                result.complete(supply(wrapper, function));
+            } catch (Throwable e) {
+                firstFailure.compareAndSet(null, e);
+                if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(firstFailure.get());
+                }
+            }
+        };
+    }
+
+    private <V, X extends Throwable> V getResult(CompletableFuture<V> result) throws X {
+        try {
+            return getUninterruptibly(result);
+        } catch (ExecutionException e) {
+            throw MoreThrowables.<X> sneakyThrow(e.getCause());
+        }
+    }
+
+    /**
+     * @param exclude {@code null} if any object could be borrowed.
+     * @return {@code null} if there is no object other than {@code exclude}.
+     */
+    @Nullable
+    private CounterWrapper borrowWrapper(@Nullable CounterWrapper exclude) {
+        return borrowWrapper(exclude, borrowStart());
+    }
+
+    /**
+     * @return {@code 0} if slow borrows are not reported.
+     */
+    private long borrowStart() {
+        return listener != null || PoolFlightRecorder.isSlowBorrowEnabled() ? nanoTime() : 0;
+    }
+
+    /**
+     * @param start from {@link #borrowStart()}, a slow borrow is timed from it.
+     */
+    @Nullable
+    private CounterWrapper borrowWrapper(@Nullable CounterWrapper exclude, long start) {
         if (closing) {
             throw new IllegalStateException("pool is closed.");
         }
+        boolean indexed = exclude == null && initialLimit <= 0;
         CounterWrapper counterWrapper;
-        do {
-            try {
-                counterWrapper = currentAvailable.stream()
-                        .filter(it -> !it.isClosing())
-                        .min(comparingInt(CounterWrapper::currentConcurrency))
-                        .orElseThrow(() -> new IllegalStateException("pool is closed."));
+        int concurrency;
+        while (true) {
+            counterWrapper = indexed ? concurrencyIndex.leastLoaded() : null;
+            // hedged attempts and learned limits need a full scan, as does a winner just evicted.
+            while (counterWrapper == null) {
+                try {
+                    counterWrapper = currentAvailable.stream()
+                            .filter(it -> !it.isClosing() && it != exclude)
+                            .min(loadOrder)
+                            .orElse(null);
+                    break;
+                } catch (ConcurrentModificationException e) {
+                    // ignore the exception
+                }
+            }
+            if (counterWrapper == null) {
+                if (exclude != null) {
+                    return null;
+                }
+                throw new IllegalStateException("pool is closed.");
+            }
+            concurrency = counterWrapper.enter();
+            if (concurrency > 0 && !counterWrapper.isClosing()) {
                 break;
-            } catch (ConcurrentModificationException e) {
-                // ignore the exception
             }
-        } while (true);
-        counterWrapper.enter();
+            // it was evicted while borrowing, its close may be waiting for this one, or its slot
+            // was released already, which rejected the enter.
+            if (concurrency > 0) {
+                counterWrapper.exit();
+            }
+            indexed = false;
+        }
+        if (concurrency > wakeUpThreshold) {
+            wakeUp();
+        }
+        if (start != 0) {
+            long cost = nanoTime() - start;
+            if (cost >= slowBorrowThresholdInNanos) {
+                if (PoolFlightRecorder.isSlowBorrowEnabled()) {
+                    PoolFlightRecorder.slowBorrow(name, concurrency, cost);
+                }
+                if (listener != null) {
+                    T obj = counterWrapper.get();
+                    int borrowed = concurrency;
+                    fireEvent(it -> it.onSlowBorrow(obj, borrowed, cost));
+                }
+            }
+        }
         return counterWrapper;
     }
 
+    private boolean shouldTrackLeak() {
+        return ThreadLocalRandom.current().nextInt(leakSamplingInterval) == 0;
+    }
+
+    private PooledHandle track(PooledHandle handle) {
+        handle.callSite = new Throwable("borrowed at");
+        handle.borrowedAt = nanoTime();
+        trackedHandles.add(handle);
+        return handle;
+    }
+
+    /**
+     * only run in {@link #scheduledExecutor} or after it was terminated.
+     */
+    private void detectLeaks() {
+        long now = nanoTime();
+        for (PooledHandle handle : trackedHandles) {
+            long held = now - handle.borrowedAt;
+            if (held < leakThresholdInNanos) {
+                continue;
+            }
+            if (!handle.reported) {
+                handle.reported = true;
+                leakedCount.increment();
+                T obj = handle.get();
+                logger.error("LEAK: pooled object was not returned after {}ms, reclaim:{}, obj:{}",
+                        NANOSECONDS.toMillis(held), reclaimLeaked, obj, handle.callSite);
+                if (listener != null) {
+                    Throwable callSite = handle.callSite;
+                    fireEvent(it -> it.onLeak(obj, held, callSite));
+                }
+            }
+            if (reclaimLeaked) {
+                handle.reclaim();
+            }
+        }
+    }
+
     @Override
     public <V> V getStats(@Nonnull StatsKey<V> key) {
         checkNotNull(key);
@@ -199,30 +1001,127 @@ public class ConcurrencyAwarePool<T> implements Pool<T> {
         checkNotNull(pooled);
         if (pooled instanceof ConcurrencyAwarePool.CounterWrapper) {
             ((CounterWrapper) pooled).leave();
+        } else if (pooled instanceof ConcurrencyAwarePool.PooledHandle) {
+            ((PooledHandle) pooled).release();
         } else {
             logger.warn("invalid pooled object:{}", pooled);
         }
     }
 
+    /**
+     * drain and destroy all objects concurrently, blocking until all of them were destroyed.
+     * closing a closed pool does nothing.
+     */
     @Override
     public void close() {
+        close(Deadline.NONE);
+    }
+
+    /**
+     * same as {@link #close()}, but objects still in use at the deadline would be destroyed anyway.
+     * if the pool was still adjusting at the deadline, e.g. creating an object, all objects would
+     * be closed once the adjust finished, and nothing is returned.
+     *
+     * @param deadline how long to wait for in-flight calls, from now.
+     * @return objects which were destroyed while still in use.
+     */
+    @Nonnull
+    @Override
+    public List<T> close(@Nonnull Duration deadline) {
+        checkNotNull(deadline);
+        return close(Deadline.after(deadline));
+    }
+
+    private List<T> close(Deadline deadline) {
+        if (!closed.compareAndSet(false, true)) {
+            // an empty pool must not overwrite the size snapshot.
+            return emptyList();
+        }
         closing = true;
-        shutdownAndAwaitTermination(scheduledExecutor, 1, DAYS);
-        Iterator<CounterWrapper> iterator = currentAvailable.iterator();
+        unregisterRecorder.run();
+        scheduledExecutor.shutdown();
+        try {
+            if (deadline.isBounded()) {
+                getUninterruptibly(adjustTerminated, deadline.remainingNanos(), NANOSECONDS);
+            } else {
+                getUninterruptibly(adjustTerminated);
+            }
+        } catch (TimeoutException e) {
+            // only the adjust thread could touch the objects, so they are closed after it.
+            logger.warn("pool was still adjusting at the deadline, objects would be closed after it.");
+            scheduledExecutor.shutdownNow();
+            adjustTerminated.thenRunAsync(() -> {
+                try {
+                    closeAll(takeAll(), deadline);
+                } catch (Throwable t) {
+                    logger.error("", t);
+                }
+            }, cleanupExecutor());
+            return emptyList();
+        } catch (ExecutionException e) {
+            // never completed exceptionally.
+            throw new IllegalStateException(e.getCause());
+        }
+        return closeAll(takeAll(), deadline);
+    }
+
+    /**
+     * only run after {@link #scheduledExecutor} was terminated.
+     */
+    private List<CounterWrapper> takeAll() {
+        if (leakThresholdInNanos > 0) {
+            // the last sweep, reclaimed borrows would not hold up draining below.
+            detectLeaks();
+        }
+        if (sizeSnapshotFile != null) {
+            persistSize();
+        }
+        List<CounterWrapper> result = new ArrayList<>(currentAvailable);
+        currentAvailable.clear();
+        result.forEach(CounterWrapper::deactivate);
+        return result;
+    }
+
+    /**
+     * @return objects which were destroyed while still in use.
+     */
+    private List<T> closeAll(List<CounterWrapper> toClose, Deadline deadline) {
+        List<CompletableFuture<Boolean>> closeFutures = new ArrayList<>(toClose.size());
+        for (CounterWrapper wrapper : toClose) {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            cleanupExecutor().execute(() -> {
+                try {
+                    future.complete(wrapper.close(deadline));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            closeFutures.add(future);
+        }
+
+        List<T> forced = new ArrayList<>();
         Throwable toThrow = null;
-        while (iterator.hasNext()) {
-            CounterWrapper wrapper = iterator.next();
-            iterator.remove();
+        for (int i = 0; i < toClose.size(); i++) {
             try {
-                wrapper.close();
-            } catch (Throwable e) {
-                toThrow = e;
+                if (getUninterruptibly(closeFutures.get(i))) {
+                    forced.add(toClose.get(i).get());
+                }
+            } catch (ExecutionException e) {
+                if (toThrow == null) {
+                    toThrow = e.getCause();
+                } else {
+                    toThrow.addSuppressed(e.getCause());
+                }
             }
         }
+        if (!forced.isEmpty()) {
+            logger.warn("force closed {} objects which were still in use:{}", forced.size(), forced);
+        }
         if (toThrow != null) {
             throwIfUnchecked(toThrow);
             throw new RuntimeException(toThrow);
         }
+        return forced;
     }
 
     @CheckReturnValue
@@ -234,12 +1133,30 @@ public class ConcurrencyAwarePool<T> implements Pool<T> {
     private class CounterWrapper implements Pooled<T>, AutoCloseable, ConcurrencyInfo {
 
         private final T obj;
-        private final AtomicInteger concurrency = new AtomicInteger();
+        private final int slot;
+        private final int generation;
+        private final Object drainLock = new Object();
+        private final VegasConcurrencyLimit limit;
 
         private volatile boolean closing = false;
+        private volatile boolean released = false;
 
         CounterWrapper(@Nonnull T obj) {
             this.obj = checkNotNull(obj);
+            this.limit = initialLimit > 0 ? new VegasConcurrencyLimit(initialLimit, maxLimit) : null;
+            this.slot = concurrencyIndex.allocate();
+            this.generation = concurrencyIndex.generation(slot);
+        }
+
+        /**
+         * take part in the least loaded selection, once it was added to {@link #currentAvailable}.
+         */
+        private void activate() {
+            concurrencyIndex.activate(slot, this);
+        }
+
+        private void deactivate() {
+            concurrencyIndex.deactivate(slot);
         }
 
         @Nonnull
@@ -253,16 +1170,84 @@ public class ConcurrencyAwarePool<T> implements Pool<T> {
          */
         @Override
         public void close() throws Exception {
+            close(Deadline.NONE);
+        }
+
+        /**
+         * would blocking until no using, or the deadline was reached.
+         *
+         * @return {@code true} if it was still in use at the deadline.
+         */
+        private boolean close(Deadline deadline) throws Exception {
+            deactivate();
             closing = true;
-            synchronized (concurrency) {
-                while (concurrency.intValue() > 0) {
-                    concurrency.wait(MINUTES.toMillis(1));
+            boolean forced = false;
+            boolean recording = currentConcurrency() > 0 && PoolFlightRecorder.isEnabled();
+            long start = recording ? nanoTime() : 0;
+            synchronized (drainLock) {
+                while (currentConcurrency() > 0) {
+                    long waitInMs = MINUTES.toMillis(1);
+                    if (deadline.isBounded()) {
+                        long remaining = deadline.remainingNanos();
+                        if (remaining <= 0) {
+                            forced = true;
+                            break;
+                        }
+                        waitInMs = min(waitInMs, Math.max(1, NANOSECONDS.toMillis(remaining)));
+                    }
+                    drainLock.wait(waitInMs);
+                }
+            }
+            if (recording) {
+                PoolFlightRecorder.drainWait(name, nanoTime() - start, forced);
+            }
+            try {
+                if (destroy == null) {
+                    return forced;
+                }
+                if (!forced) {
+                    // sleep for one more second for safety.
+                    long sleepInNanos = SECONDS.toNanos(1);
+                    if (deadline.isBounded()) {
+                        sleepInNanos = min(sleepInNanos, deadline.remainingNanos());
+                    }
+                    sleepUninterruptibly(sleepInNanos, NANOSECONDS);
+                }
+                destroyObject();
+                return forced;
+            } finally {
+                // a forced one may still be returned later, never reuse its slot.
+                if (!forced) {
+                    released = true;
+                    concurrencyIndex.release(slot);
                 }
             }
-            if (destroy != null) {
-                // sleep for one more second for safety.
-                sleepUninterruptibly(1, SECONDS);
+        }
+
+        private void destroyObject() throws Exception {
+            boolean recording = PoolFlightRecorder.isEnabled();
+            if (listener == null && !recording) {
                 destroy.accept(obj);
+                return;
+            }
+            long start = nanoTime();
+            try {
+                destroy.accept(obj);
+            } catch (Throwable e) {
+                if (recording) {
+                    PoolFlightRecorder.destroy(name, nanoTime() - start, true);
+                }
+                if (listener != null) {
+                    fireEvent(it -> it.onDestroyFailed(obj, e));
+                }
+                throw e;
+            }
+            long cost = nanoTime() - start;
+            if (recording) {
+                PoolFlightRecorder.destroy(name, cost, false);
+            }
+            if (listener != null) {
+                fireEvent(it -> it.onDestroy(obj, cost));
             }
         }
 
@@ -272,20 +1257,137 @@ public class ConcurrencyAwarePool<T> implements Pool<T> {
 
         @Override
         public int currentConcurrency() {
-            return concurrency.intValue();
+            return concurrencyIndex.get(slot);
+        }
+
+        @Override
+        public int concurrencyLimit() {
+            return limit == null ? Integer.MAX_VALUE : limit.getLimit();
+        }
+
+        /**
+         * objects over their learned limit always have a load greater than 1.
+         */
+        private double load() {
+            return (double) currentConcurrency() / concurrencyLimit();
         }
 
-        private void enter() {
-            concurrency.getAndIncrement();
+        /**
+         * @return {@code -1} if it was destroyed and its slot was released.
+         */
+        private int enter() {
+            return concurrencyIndex.increment(slot, generation);
         }
 
         private void leave() {
-            int after = concurrency.decrementAndGet();
+            if (released) {
+                logger.warn("pooled object was returned after it was destroyed:{}", obj);
+                return;
+            }
+            exit();
+        }
+
+        /**
+         * a released slot rejects it, even if it belongs to another object now.
+         */
+        private void exit() {
+            int after = concurrencyIndex.decrement(slot, generation);
             if (closing && after == 0) {
-                synchronized (concurrency) {
-                    concurrency.notifyAll();
+                synchronized (drainLock) {
+                    drainLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * a single borrow which needs more than the object itself to be returned.
+     */
+    private class PooledHandle implements Pooled<T> {
+
+        private final CounterWrapper wrapper;
+        private final PriorityLane lane;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        /**
+         * only for borrows sampled by leak detection.
+         */
+        private volatile Throwable callSite;
+        private volatile long borrowedAt;
+        private volatile boolean reported;
+        private volatile boolean reclaimed;
+
+        /**
+         * @param lane {@code null} if it was borrowed without priority.
+         */
+        PooledHandle(CounterWrapper wrapper, @Nullable PriorityLane lane) {
+            this.wrapper = wrapper;
+            this.lane = lane;
+        }
+
+        @Nonnull
+        @Override
+        public T get() {
+            return wrapper.get();
+        }
+
+        private void release() {
+            if (!returned.compareAndSet(false, true)) {
+                if (reclaimed) {
+                    logger.warn("pooled object was returned after it was reclaimed as leaked:{}",
+                            wrapper.get());
+                } else {
+                    logger.warn("pooled object was returned more than once:{}", wrapper.get());
                 }
+                return;
+            }
+            if (callSite != null) {
+                trackedHandles.remove(this);
+            }
+            wrapper.leave();
+            if (lane != null) {
+                lane.release();
+            }
+        }
+
+        /**
+         * release the concurrency held by a leaked borrow, a late return would be ignored.
+         */
+        private void reclaim() {
+            reclaimed = true;
+            if (returned.compareAndSet(false, true)) {
+                trackedHandles.remove(this);
+                wrapper.leave();
+                if (lane != null) {
+                    lane.release();
+                }
+                reclaimedCount.increment();
+            }
+        }
+    }
+
+    /**
+     * what strategies see, only valid on {@link #scheduledExecutor}.
+     */
+    private class AvailableView extends AbstractList<CounterWrapper> implements ConcurrencyIndex.Indexed {
+
+        @Override
+        public CounterWrapper get(int index) {
+            return currentAvailable.get(index);
+        }
+
+        @Override
+        public int size() {
+            return currentAvailable.size();
+        }
+
+        @Nonnull
+        @Override
+        public List<? extends ConcurrencyInfo> leastConcurrency(int k) {
+            if (concurrencyIndex.isEnabled()) {
+                return concurrencyIndex.leastLoaded(k);
             }
+            return ConcurrencyIndex.leastConcurrency(currentAvailable, k);
         }
     }
 
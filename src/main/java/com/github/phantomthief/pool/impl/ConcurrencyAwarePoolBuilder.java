@@ -2,9 +2,23 @@ package com.github.phantomthief.pool.impl;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.time.Duration.ofHours;
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofMinutes;
 import static java.time.Duration.ofSeconds;
 
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.DayOfWeek;
 import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
@@ -30,13 +44,46 @@ public class ConcurrencyAwarePoolBuilder<T> {
     private static final int DEFAULT_MAX_SIZE = 10000;
     private static final int DEFAULT_CONTINUOUS_EXTEND_THRESHOLD = 1;
     private static final int DEFAULT_CONTINUOUS_SHRINK_THRESHOLD = 1;
+    private static final Duration DEFAULT_SLOW_BORROW_THRESHOLD = ofMillis(1);
+    private static final double DEFAULT_HEDGE_BUDGET_RATIO = 0.1;
+    private static final int DEFAULT_REPLACE_PARALLELISM = 4;
+    private static final int DEFAULT_LEAK_SAMPLING_INTERVAL = 128;
+    private static final Duration DEFAULT_SIZE_SNAPSHOT_PERIOD = ofMinutes(1);
+    private static final Duration DEFAULT_SIZE_SNAPSHOT_MAX_AGE = ofHours(1);
+    private static final double DEFAULT_ADAPTIVE_EXTEND_RATIO = 0.9;
+    private static final double DEFAULT_ADAPTIVE_SHRINK_RATIO = 0.5;
+    private static final Duration DEFAULT_PROFILE_BUCKET = ofMinutes(5);
+    private static final double DEFAULT_PROFILE_LEARNING_RATE = 0.3;
 
+    String name;
     ThrowableSupplier<T, Exception> factory;
     ThrowableConsumer<T, Exception> destroy;
     int minIdle = DEFAULT_MIN_IDLE;
     int maxSize = DEFAULT_MAX_SIZE;
     ConcurrencyAdjustStrategy strategy;
+    final List<ScheduledMinSize> minSizeSchedules = new ArrayList<>();
+    ZoneId scheduleZone;
+    Duration preScaleLead;
+    double preScaleLearningRate = DEFAULT_PROFILE_LEARNING_RATE;
     Duration evaluatePeriod = DEFAULT_EVALUATE_PERIOD;
+    Duration maxEvaluatePeriod;
+    Duration eagerExtendInterval;
+    int initialConcurrencyLimit;
+    double hedgeBudgetRatio = DEFAULT_HEDGE_BUDGET_RATIO;
+    final Map<Integer, Double> priorityShares = new HashMap<>();
+    Duration priorityWaitTimeout = Duration.ZERO;
+    int replaceParallelism = DEFAULT_REPLACE_PARALLELISM;
+    Duration coalescedResultReuse;
+    long coalescedResultMaxSize;
+    int leakSamplingInterval = DEFAULT_LEAK_SAMPLING_INTERVAL;
+    Duration leakThreshold;
+    boolean reclaimLeaked;
+    Path sizeSnapshotFile;
+    Duration sizeSnapshotPeriod;
+    Duration sizeSnapshotMaxAge;
+    int maxConcurrencyLimit;
+    PoolEventListener<? super T> eventListener;
+    Duration slowBorrowThreshold = DEFAULT_SLOW_BORROW_THRESHOLD;
 
     ConcurrencyAwarePoolBuilder() {
     }
@@ -71,6 +118,78 @@ public class ConcurrencyAwarePoolBuilder<T> {
         return this;
     }
 
+    /**
+     * keep at least {@code minSize} objects from {@code from} to {@code to} every day,
+     * see {@link #scheduledMinSize(Set, LocalTime, LocalTime, int)}.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> scheduledMinSize(@Nonnull LocalTime from,
+            @Nonnull LocalTime to, @Nonnegative int minSize) {
+        return scheduledMinSize(EnumSet.allOf(DayOfWeek.class), from, to, minSize);
+    }
+
+    /**
+     * keep at least {@code minSize} objects from {@code from} to {@code to} on {@code days},
+     * the missing objects are created in one evaluation, and the strategy could not shrink
+     * the pool below it. a window whose {@code to} is before {@code from} crosses midnight.
+     * it could be called more than once, and the largest matched size wins.
+     *
+     * the schedule is only checked on evaluations, so a window takes effect at the first
+     * evaluation after {@code from} and ends at the first one after {@code to}, which could be
+     * up to one (max) evaluate period late. start the window earlier if the objects must be
+     * ready right at {@code from}.
+     *
+     * it works with any {@link #strategy}, or without one.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> scheduledMinSize(@Nonnull Set<DayOfWeek> days,
+            @Nonnull LocalTime from, @Nonnull LocalTime to, @Nonnegative int minSize) {
+        minSizeSchedules.add(new ScheduledMinSize(days, from, to, minSize));
+        return this;
+    }
+
+    /**
+     * the time zone of {@link #scheduledMinSize} and {@link #predictivePreScale},
+     * default value is the system default.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> scheduleZone(@Nonnull ZoneId zone) {
+        this.scheduleZone = checkNotNull(zone);
+        return this;
+    }
+
+    /**
+     * learn the peak total concurrency of each time of day, and keep enough objects for the peak
+     * expected within {@code lead} from now, so the pool was already extended when the ramp lands.
+     * the size for a concurrency is given by {@link ConcurrencyAdjustStrategy#extendThreshold()},
+     * and the strategy still reacts to loads it did not expect.
+     *
+     * @param lead should be longer than the (max) evaluate period and the time to create objects.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> predictivePreScale(@Nonnull Duration lead) {
+        return predictivePreScale(lead, DEFAULT_PROFILE_LEARNING_RATE);
+    }
+
+    /**
+     * @param learningRate the weight of the latest day in the learned profile.
+     * @see #predictivePreScale(Duration)
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> predictivePreScale(@Nonnull Duration lead,
+            double learningRate) {
+        checkArgument(!lead.isNegative());
+        checkArgument(learningRate > 0 && learningRate <= 1);
+        this.preScaleLead = lead;
+        this.preScaleLearningRate = learningRate;
+        return this;
+    }
+
     /**
      * default value is {@link #DEFAULT_EVALUATE_PERIOD}
      */
@@ -81,6 +200,65 @@ public class ConcurrencyAwarePoolBuilder<T> {
         return this;
     }
 
+    /**
+     * double the evaluate period after each evaluation which changed nothing, up to {@code maxPeriod}.
+     * it would be reset to {@link #evaluatePeriod} once the pool was extended or shrunk.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> adaptiveEvaluatePeriod(@Nonnull Duration maxPeriod) {
+        this.maxEvaluatePeriod = checkNotNull(maxPeriod);
+        return this;
+    }
+
+    /**
+     * evaluate the strategy immediately if {@link Pool#borrow} picks an object whose concurrency
+     * already reached {@link ConcurrencyAdjustStrategy#extendThreshold()},
+     * instead of waiting for the next evaluate period.
+     *
+     * @param minInterval the minimum interval between two early evaluations.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> eagerExtend(@Nonnull Duration minInterval) {
+        checkArgument(!minInterval.isNegative());
+        this.eagerExtendInterval = minInterval;
+        return this;
+    }
+
+    /**
+     * identifies the pool in Java Flight Recorder events, a generated one would be used if not set.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> name(@Nonnull String value) {
+        this.name = checkNotNull(value);
+        return this;
+    }
+
+    /**
+     * events are dispatched asynchronously, no event would be generated if no listener was set.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> eventListener(@Nonnull PoolEventListener<? super T> listener) {
+        this.eventListener = checkNotNull(listener);
+        return this;
+    }
+
+    /**
+     * borrows slower than this threshold would be reported by {@link PoolEventListener#onSlowBorrow}.
+     * the wait for a {@link #priorityShare} is a part of the borrow.
+     * default value is {@link #DEFAULT_SLOW_BORROW_THRESHOLD}
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> slowBorrowThreshold(@Nonnull Duration threshold) {
+        checkArgument(!threshold.isNegative());
+        this.slowBorrowThreshold = threshold;
+        return this;
+    }
+
     /**
      * @param extendThreshold if min concurrency reach this threshold, the pool would extend.
      * @param shrinkThreshold if the second min concurrency below extendThreshold*shrinkThreshold, the pool would shrink.
@@ -106,6 +284,174 @@ public class ConcurrencyAwarePoolBuilder<T> {
                 continuousExtendThreshold, continuousShrinkThreshold));
     }
 
+    /**
+     * limits hedged attempts of {@link Pool#supplyHedged} to {@code ratio} of all its calls.
+     * default value is {@link #DEFAULT_HEDGE_BUDGET_RATIO}
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> hedgeBudget(double ratio) {
+        checkArgument(ratio > 0 && ratio <= 1);
+        this.hedgeBudgetRatio = ratio;
+        return this;
+    }
+
+    /**
+     * persist the pool size to {@code file} periodically and on close, and pre-warm to that size
+     * on startup, see {@link #persistSize(Path, Duration, Duration)}.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> persistSize(@Nonnull Path file) {
+        return persistSize(file, DEFAULT_SIZE_SNAPSHOT_PERIOD, DEFAULT_SIZE_SNAPSHOT_MAX_AGE);
+    }
+
+    /**
+     * the size read on startup decays linearly to {@link #minIdle} as the snapshot gets older,
+     * and is always bounded by {@link #maxSize}. learned concurrency limits are persisted too,
+     * if {@link #adaptiveConcurrencyLimit} was enabled, as is the profile learned by
+     * {@link #predictivePreScale}, which is restored no matter how old the snapshot is.
+     *
+     * @param period how often to write the snapshot.
+     * @param maxAge snapshots older than this are ignored.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> persistSize(@Nonnull Path file, @Nonnull Duration period,
+            @Nonnull Duration maxAge) {
+        checkArgument(!period.isNegative() && !maxAge.isNegative());
+        this.sizeSnapshotFile = checkNotNull(file);
+        this.sizeSnapshotPeriod = period;
+        this.sizeSnapshotMaxAge = maxAge;
+        return this;
+    }
+
+    /**
+     * report borrows which were not returned after {@code threshold}, see
+     * {@link #leakDetection(int, Duration, boolean)}. sampling one of
+     * {@link #DEFAULT_LEAK_SAMPLING_INTERVAL} borrows, without reclaiming.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> leakDetection(@Nonnull Duration threshold) {
+        return leakDetection(DEFAULT_LEAK_SAMPLING_INTERVAL, threshold, false);
+    }
+
+    /**
+     * one of {@code samplingInterval} borrows by {@link Pool#borrow()} records its call site,
+     * and would be logged and reported to {@link PoolEventListener#onLeak} if it was not returned
+     * after {@code threshold}. borrows by {@link Pool#supply} always return their objects and are
+     * never sampled.
+     *
+     * @param samplingInterval {@code 1} to track every borrow.
+     * @param reclaim release the concurrency held by a leaked borrow, so it stops skewing
+     *                the routing and the strategy. a late return of it would be ignored.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> leakDetection(@Nonnegative int samplingInterval,
+            @Nonnull Duration threshold, boolean reclaim) {
+        checkArgument(samplingInterval > 0);
+        checkArgument(!threshold.isNegative() && !threshold.isZero());
+        this.leakSamplingInterval = samplingInterval;
+        this.leakThreshold = threshold;
+        this.reclaimLeaked = reclaim;
+        return this;
+    }
+
+    /**
+     * results of {@link Pool#supplyCoalesced} would be reused by calls with the same key
+     * within {@code reuse} after they were finished, instead of calling again.
+     * not reused by default, only concurrent calls are coalesced.
+     *
+     * @param maxSize the max reused results, the least recently used ones are evicted first.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> coalescedResultReuse(@Nonnull Duration reuse,
+            @Nonnegative long maxSize) {
+        checkArgument(!reuse.isNegative() && !reuse.isZero());
+        checkArgument(maxSize > 0);
+        this.coalescedResultReuse = reuse;
+        this.coalescedResultMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * how many objects {@link Pool#replaceAll} would replace at the same time,
+     * the pool may hold this many extra objects during replacing.
+     * default value is {@link #DEFAULT_REPLACE_PARALLELISM}
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> replaceParallelism(@Nonnegative int value) {
+        checkArgument(value > 0);
+        this.replaceParallelism = value;
+        return this;
+    }
+
+    /**
+     * borrows of {@code priority} may use at most {@code maxShare} of the pool capacity,
+     * the rest is reserved for other priorities. priorities without a share are not limited.
+     *
+     * the capacity is the sum of {@link ConcurrencyInfo#concurrencyLimit()} if
+     * {@link #adaptiveConcurrencyLimit} was enabled, otherwise
+     * {@link ConcurrencyAdjustStrategy#extendThreshold()} for each object.
+     *
+     * @param maxShare in (0, 1)
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> priorityShare(int priority, double maxShare) {
+        checkArgument(maxShare > 0 && maxShare < 1);
+        this.priorityShares.put(priority, maxShare);
+        return this;
+    }
+
+    /**
+     * how long a borrow would wait for its priority share before being rejected,
+     * default value is zero, which means reject immediately.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> priorityWaitTimeout(@Nonnull Duration timeout) {
+        checkArgument(!timeout.isNegative());
+        this.priorityWaitTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * learn the concurrency limit of each object from the latency of {@link Pool#supply} calls,
+     * borrow would prefer objects with the lowest concurrency relative to their limits,
+     * and the pool would extend once the total concurrency is close to the sum of all limits.
+     *
+     * objects used by {@link Pool#borrow} and {@link Pool#returnObject} directly are not sampled.
+     * this would replace any strategy set before.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> adaptiveConcurrencyLimit(@Nonnegative int initialLimit,
+            @Nonnegative int maxLimit) {
+        return adaptiveConcurrencyLimit(initialLimit, maxLimit, DEFAULT_ADAPTIVE_EXTEND_RATIO,
+                DEFAULT_ADAPTIVE_SHRINK_RATIO);
+    }
+
+    /**
+     * @param extendRatio extend if total concurrency reach {@code sum(limits) * extendRatio}.
+     * @param shrinkRatio shrink if total concurrency is below
+     *                    {@code sum(limits without the least loaded one) * shrinkRatio}.
+     * @see #adaptiveConcurrencyLimit(int, int)
+     */
+    @CheckReturnValue
+    @Nonnull
+    public ConcurrencyAwarePoolBuilder<T> adaptiveConcurrencyLimit(@Nonnegative int initialLimit,
+            @Nonnegative int maxLimit, double extendRatio, double shrinkRatio) {
+        checkArgument(initialLimit > 0 && initialLimit <= maxLimit);
+        this.initialConcurrencyLimit = initialLimit;
+        this.maxConcurrencyLimit = maxLimit;
+        return strategy(new AdaptiveLimitAdjustStrategy(extendRatio, shrinkRatio));
+    }
+
     /**
      * @throws IllegalArgumentException when maxSize is smaller than minIdle
      */
@@ -121,8 +467,35 @@ public class ConcurrencyAwarePoolBuilder<T> {
             throw new IllegalArgumentException(
                     "maxSize[" + maxSize + "] must be larger than minIdle[" + minIdle + "].");
         }
-        if (strategy == null) {
+        if (maxEvaluatePeriod != null && maxEvaluatePeriod.compareTo(evaluatePeriod) < 0) {
+            throw new IllegalArgumentException("max evaluate period[" + maxEvaluatePeriod
+                    + "] must not be smaller than evaluate period[" + evaluatePeriod + "].");
+        }
+        if (!priorityShares.isEmpty() && initialConcurrencyLimit <= 0
+                && (strategy == null || strategy.extendThreshold() == Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException(
+                    "priority share needs a strategy with extend threshold or adaptive concurrency limit.");
+        }
+        if (preScaleLead != null
+                && (strategy == null || strategy.extendThreshold() == Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException(
+                    "predictive pre-scale needs a strategy with extend threshold.");
+        }
+        if (strategy == null && minSizeSchedules.isEmpty()) {
             logger.warn("no strategy found. pool would run as static mode.");
         }
     }
+
+    /**
+     * the {@link #strategy} wrapped by schedules, if any.
+     */
+    ConcurrencyAdjustStrategy buildStrategy() {
+        if (minSizeSchedules.isEmpty() && preScaleLead == null) {
+            return strategy;
+        }
+        Clock clock = scheduleZone == null ? Clock.systemDefaultZone() : Clock.system(scheduleZone);
+        TimeOfDayProfile profile = preScaleLead == null ? null
+                                                        : new TimeOfDayProfile(DEFAULT_PROFILE_BUCKET, preScaleLearningRate);
+        return new ScheduledAdjustStrategy(strategy, minSizeSchedules, profile, preScaleLead, clock);
+    }
 }
@@ -0,0 +1,378 @@
+package com.github.phantomthief.pool.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * concurrency counters of pooled objects packed in padded int arrays, with a tournament tree
+ * over them, so the least concurrency object is found in O(1) and each counter update costs
+ * O(log n), instead of scanning all objects on every borrow.
+ *
+ * each object reserves a slot, and only active slots take part in matches. the tree only keeps
+ * the winner slot of each match and always compares the live counters. an update replays the
+ * matches on the path to the root, each with a versioned CAS, so a node never keeps a winner
+ * computed from stale children. the replay stops at the first match whose winner was neither
+ * changed nor the updated slot, since no match above it could change. {@link #refresh()} replays
+ * the whole tree to fix the drift of updates which raced with a growth.
+ *
+ * each counter is tagged with the generation of its slot, which is changed on each allocate and
+ * release, so a late update of a previous owner never touches a reused slot.
+ */
+@ThreadSafe
+class ConcurrencyIndex<E> {
+
+    /**
+     * one counter per cache line, to avoid false sharing between hot objects.
+     */
+    private static final int PAD = 8;
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MIN_TREE_CAPACITY = 2;
+    private static final int NONE = -1;
+    private static final long WINNER_MASK = 0xFFFFFFFFL;
+    private static final long COUNTER_MASK = 0xFFFFFFFFL;
+
+    /**
+     * chunks never move once created, so counters could be updated while growing.
+     */
+    private volatile Chunk<E>[] chunks;
+
+    /**
+     * node {@code 1} is the root, node {@code i} has children {@code 2i} and {@code 2i + 1}.
+     * leaves are not stored, leaf {@code capacity + slot} is the slot itself.
+     * each node is {@code version << 32 | winner slot}.
+     */
+    private volatile AtomicLongArray tree = newTree(MIN_TREE_CAPACITY);
+
+    /**
+     * a disabled index only keeps the counters, which is cheaper for a few objects.
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * guarded by {@code this}.
+     */
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int nextSlot;
+
+    @SuppressWarnings("unchecked")
+    ConcurrencyIndex() {
+        this.chunks = new Chunk[] { new Chunk<>() };
+    }
+
+    /**
+     * @return a slot which does not take part in matches until {@link #activate}.
+     */
+    synchronized int allocate() {
+        Integer free = freeSlots.poll();
+        if (free != null) {
+            // a new owner always starts from zero.
+            reset(free);
+            return free;
+        }
+        int slot = nextSlot++;
+        Chunk<E>[] current = chunks;
+        if (slot >>> CHUNK_BITS >= current.length) {
+            Chunk<E>[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = new Chunk<>();
+            chunks = grown;
+        }
+        int capacity = capacity(tree);
+        if (slot >= capacity) {
+            AtomicLongArray grown = newTree(capacity * 2);
+            replayAll(grown);
+            tree = grown;
+        }
+        return slot;
+    }
+
+    /**
+     * the slot must not be active, and all its borrows must be returned.
+     */
+    synchronized void release(@Nonnegative int slot) {
+        Chunk<E> chunk = chunk(slot);
+        chunk.elements.set(slot & CHUNK_MASK, null);
+        reset(slot);
+        freeSlots.push(slot);
+    }
+
+    /**
+     * guarded by {@code this}, any update of the previous generation would be rejected.
+     */
+    private void reset(int slot) {
+        AtomicLongArray counters = chunk(slot).counters;
+        int offset = offset(slot);
+        counters.set(offset, (counters.get(offset) >>> 32) + 1 << 32);
+    }
+
+    /**
+     * @return changed on each {@link #allocate} and {@link #release} of the slot.
+     */
+    int generation(@Nonnegative int slot) {
+        return (int) (chunk(slot).counters.get(offset(slot)) >>> 32);
+    }
+
+    void activate(@Nonnegative int slot, @Nonnull E element) {
+        chunk(slot).elements.set(slot & CHUNK_MASK, element);
+        replay(slot);
+    }
+
+    void deactivate(@Nonnegative int slot) {
+        chunk(slot).elements.set(slot & CHUNK_MASK, null);
+        replay(slot);
+    }
+
+    /**
+     * @return the counter after it, or {@code -1} if the slot was reset since the generation.
+     */
+    int increment(@Nonnegative int slot, int generation) {
+        return add(slot, generation, 1);
+    }
+
+    /**
+     * @return the counter after it, or {@code -1} if the slot was reset since the generation.
+     */
+    int decrement(@Nonnegative int slot, int generation) {
+        return add(slot, generation, -1);
+    }
+
+    private int add(int slot, int generation, int delta) {
+        AtomicLongArray counters = chunk(slot).counters;
+        int offset = offset(slot);
+        while (true) {
+            long current = counters.get(offset);
+            if ((int) (current >>> 32) != generation) {
+                return -1;
+            }
+            int result = (int) current + delta;
+            if (counters.compareAndSet(offset, current,
+                    current & ~COUNTER_MASK | result & COUNTER_MASK)) {
+                replay(slot);
+                return result;
+            }
+        }
+    }
+
+    int get(@Nonnegative int slot) {
+        return (int) chunk(slot).counters.get(offset(slot));
+    }
+
+    /**
+     * a disabled index would not replay any match, {@link #refresh()} it after it was enabled.
+     */
+    void enable(boolean value) {
+        enabled = value;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return {@code null} if no slot is active, the winner was just deactivated,
+     *         or the index is disabled.
+     */
+    @Nullable
+    E leastLoaded() {
+        if (!enabled) {
+            return null;
+        }
+        int winner = (int) tree.get(1);
+        return winner == NONE ? null : element(winner);
+    }
+
+    /**
+     * @return at most {@code k} active elements, the least concurrency first,
+     *         only if the index is enabled.
+     */
+    @Nonnull
+    List<E> leastLoaded(@Nonnegative int k) {
+        AtomicLongArray t = tree;
+        int capacity = capacity(t);
+        List<E> result = new ArrayList<>(k);
+        // key << 32 | node, keys are taken when nodes were offered so the order never changes.
+        PriorityQueue<Long> queue = new PriorityQueue<>();
+        offer(queue, t, capacity, 1);
+        while (result.size() < k && !queue.isEmpty()) {
+            int node = (int) (queue.poll() & WINNER_MASK);
+            if (node >= capacity) {
+                E element = element(node - capacity);
+                if (element != null) {
+                    result.add(element);
+                }
+            } else {
+                offer(queue, t, capacity, 2 * node);
+                offer(queue, t, capacity, 2 * node + 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * replay all matches, bottom up.
+     */
+    void refresh() {
+        if (enabled) {
+            replayAll(tree);
+        }
+    }
+
+    private void offer(PriorityQueue<Long> queue, AtomicLongArray t, int capacity, int node) {
+        int winner = winner(t, capacity, node);
+        if (winner != NONE) {
+            queue.add((long) Math.max(0, get(winner)) << 32 | node);
+        }
+    }
+
+    private void replay(int slot) {
+        if (!enabled) {
+            return;
+        }
+        AtomicLongArray t = tree;
+        int capacity = capacity(t);
+        if (slot >= capacity) {
+            // the tree is growing, the new one would be built from the live counters.
+            return;
+        }
+        for (int node = (capacity + slot) >>> 1; node >= 1; node >>>= 1) {
+            if (!replayMatch(t, capacity, node, slot)) {
+                // matches above never saw the slot, and none of their children was changed.
+                return;
+            }
+        }
+    }
+
+    private void replayAll(AtomicLongArray t) {
+        int capacity = capacity(t);
+        for (int node = capacity - 1; node >= 1; node--) {
+            replayMatch(t, capacity, node, NONE);
+        }
+    }
+
+    /**
+     * the children are read after the node, if anyone changed the node since then,
+     * the children may have changed too, so the match is replayed again.
+     * the version is bumped even if the winner was not changed, to fail any concurrent replay
+     * which read the counters before this one.
+     *
+     * @return {@code true} if the parent should be replayed for an update of {@code slot}.
+     */
+    private boolean replayMatch(AtomicLongArray t, int capacity, int node, int slot) {
+        while (true) {
+            long current = t.get(node);
+            int winner = match(winner(t, capacity, 2 * node), winner(t, capacity, 2 * node + 1));
+            long next = ((current >>> 32) + 1) << 32 | (winner & WINNER_MASK);
+            if (t.compareAndSet(node, current, next)) {
+                return winner == slot || winner != (int) current;
+            }
+        }
+    }
+
+    private int match(int left, int right) {
+        if (left == NONE) {
+            return right;
+        }
+        if (right == NONE) {
+            return left;
+        }
+        return get(right) < get(left) ? right : left;
+    }
+
+    private int winner(AtomicLongArray t, int capacity, int node) {
+        if (node < capacity) {
+            return (int) t.get(node);
+        }
+        int slot = node - capacity;
+        if (slot >= chunkedSlots() || element(slot) == null) {
+            return NONE;
+        }
+        return slot;
+    }
+
+    /**
+     * slots beyond it have no chunk yet.
+     */
+    private int chunkedSlots() {
+        return chunks.length << CHUNK_BITS;
+    }
+
+    @Nullable
+    private E element(int slot) {
+        return chunk(slot).elements.get(slot & CHUNK_MASK);
+    }
+
+    private Chunk<E> chunk(int slot) {
+        return chunks[slot >>> CHUNK_BITS];
+    }
+
+    private static int offset(int slot) {
+        return (slot & CHUNK_MASK) * PAD;
+    }
+
+    private static int capacity(AtomicLongArray t) {
+        return t.length() >>> 1;
+    }
+
+    private static AtomicLongArray newTree(int capacity) {
+        AtomicLongArray result = new AtomicLongArray(capacity * 2);
+        for (int i = 0; i < result.length(); i++) {
+            result.set(i, NONE & WINNER_MASK);
+        }
+        return result;
+    }
+
+    /**
+     * the {@code k} least concurrency items, the least first, and the earlier one of equal items.
+     * it's read from the index if {@code current} is an {@link Indexed} view of a pool.
+     */
+    @Nonnull
+    static List<? extends ConcurrencyInfo> leastConcurrency(
+            @Nonnull Collection<? extends ConcurrencyInfo> current, @Nonnegative int k) {
+        if (current instanceof Indexed) {
+            return ((Indexed) current).leastConcurrency(k);
+        }
+        List<ConcurrencyInfo> result = new ArrayList<>(k + 1);
+        for (ConcurrencyInfo item : current) {
+            int concurrency = item.currentConcurrency();
+            int index = result.size();
+            while (index > 0 && result.get(index - 1).currentConcurrency() > concurrency) {
+                index--;
+            }
+            if (index < k) {
+                result.add(index, item);
+                if (result.size() > k) {
+                    result.remove(k);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * a collection of pooled objects which could find the least concurrency ones by an index.
+     */
+    interface Indexed {
+
+        @Nonnull
+        List<? extends ConcurrencyInfo> leastConcurrency(@Nonnegative int k);
+    }
+
+    private static final class Chunk<E> {
+
+        private final AtomicLongArray counters = new AtomicLongArray(CHUNK_SIZE * PAD);
+        private final AtomicReferenceArray<E> elements = new AtomicReferenceArray<>(CHUNK_SIZE);
+    }
+}
@@ -7,4 +7,12 @@ package com.github.phantomthief.pool.impl;
 public interface ConcurrencyInfo {
 
     int currentConcurrency();
+
+    /**
+     * @return the learned concurrency limit of this object, {@link Integer#MAX_VALUE} if not limited.
+     * see {@link ConcurrencyAwarePoolBuilder#adaptiveConcurrencyLimit}
+     */
+    default int concurrencyLimit() {
+        return Integer.MAX_VALUE;
+    }
 }
@@ -0,0 +1,54 @@
+package com.github.phantomthief.pool.impl;
+
+import static java.lang.System.nanoTime;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * a deadline kept as its start and timeout, so a huge timeout never overflows.
+ */
+@Immutable
+final class Deadline {
+
+    static final Deadline NONE = new Deadline(false, 0);
+
+    private final boolean bounded;
+    private final long start = nanoTime();
+    private final long timeoutInNanos;
+
+    private Deadline(boolean bounded, long timeoutInNanos) {
+        this.bounded = bounded;
+        this.timeoutInNanos = timeoutInNanos;
+    }
+
+    /**
+     * @param timeout from now, negative ones are treated as zero.
+     */
+    @Nonnull
+    static Deadline after(@Nonnull Duration timeout) {
+        long nanos;
+        try {
+            nanos = Math.max(0, timeout.toNanos());
+        } catch (ArithmeticException e) {
+            nanos = timeout.isNegative() ? 0 : Long.MAX_VALUE;
+        }
+        return new Deadline(true, nanos);
+    }
+
+    boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * @return {@link Long#MAX_VALUE} if it's not bounded, or {@code 0} if it was reached.
+     */
+    long remainingNanos() {
+        if (!bounded) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, timeoutInNanos - (nanoTime() - start));
+    }
+}
@@ -0,0 +1,484 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.github.phantomthief.pool.impl.ConcurrencyAwarePool.CURRENT_CONCURRENCY;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.shutdownAndAwaitTermination;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.phantomthief.pool.Pool;
+import com.github.phantomthief.pool.Pooled;
+import com.github.phantomthief.pool.StatsKey;
+import com.github.phantomthief.util.ThrowableFunction;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * a pool over several member pools, e.g. one {@link ConcurrencyAwarePool} per backend cluster.
+ *
+ * each borrow goes to the least loaded healthy member of the preferred tier, the load is the
+ * concurrency through this pool normalized by the capacity of the member. once every preferred
+ * member is saturated, borrows spill over to the secondary tier. members whose error rate or
+ * {@link ConcurrencyAwarePool#CURRENT_CONCURRENCY} crossed the limit are failed over for a while,
+ * unless no member is healthy at all. only failures of members and exceptions chosen by
+ * {@link FederatedPoolBuilder#errorClassifier} are counted as errors, a rejection by a priority
+ * share of a member is back-pressure, not an error.
+ *
+ * <pre>{@code
+ * Pool<Client> pool = FederatedPool.<Client> builder()
+ *         .preferred(localZonePool, 100)
+ *         .secondary(remoteZonePool, 100)
+ *         .maxErrorRate(0.5)
+ *         .build();
+ * }</pre>
+ *
+ * numeric stats (e.g. {@link ConcurrencyAwarePool#CURRENT_COUNT}) are summed over members,
+ * other stats could not be merged and are always {@code null}.
+ */
+@ThreadSafe
+public class FederatedPool<T> implements Pool<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FederatedPool.class);
+
+    /**
+     * members grouped by tier, preferred tier first.
+     */
+    private final List<List<Member<T>>> tiers;
+    private final List<Member<T>> members;
+    private final double maxErrorRate;
+    private final int minRequests;
+    private final int maxConcurrency;
+    private final long failoverInNanos;
+    private final Predicate<? super Throwable> errorClassifier;
+    private final Coalescer<Object> coalescer = new Coalescer<>();
+
+    private final ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactoryBuilder()
+                    .setNameFormat("federated-pool-check-%d")
+                    .setDaemon(true)
+                    .build());
+
+    private volatile boolean closing = false;
+
+    /**
+     * see {@link FederatedPool#builder()}
+     */
+    FederatedPool(FederatedPoolBuilder<T> builder) {
+        this.maxErrorRate = builder.maxErrorRate;
+        this.minRequests = builder.minRequests;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.failoverInNanos = builder.failoverDuration.toNanos();
+        this.errorClassifier = builder.errorClassifier;
+        this.tiers = new ArrayList<>();
+        this.members = new ArrayList<>();
+        for (List<FederatedPoolBuilder.MemberSpec<T>> tier : builder.tiers()) {
+            List<Member<T>> list = new ArrayList<>(tier.size());
+            for (FederatedPoolBuilder.MemberSpec<T> spec : tier) {
+                Member<T> member = new Member<>(spec.pool, spec.capacity);
+                list.add(member);
+                members.add(member);
+            }
+            tiers.add(list);
+        }
+        long checkPeriodInMs = builder.checkPeriod.toMillis();
+        scheduledExecutor.scheduleWithFixedDelay(this::check, checkPeriodInMs, checkPeriodInMs,
+                MILLISECONDS);
+    }
+
+    /**
+     * only run in {@link #scheduledExecutor}.
+     */
+    private void check() {
+        long now = nanoTime();
+        for (Member<T> member : members) {
+            long requests = member.requests.sumThenReset();
+            long errors = member.errors.sumThenReset();
+            if (requests >= minRequests && (double) errors / requests > maxErrorRate) {
+                failover(member, now, "error rate " + errors + "/" + requests);
+                continue;
+            }
+            if (maxConcurrency > 0) {
+                int concurrency;
+                try {
+                    concurrency = member.concurrency();
+                } catch (Throwable e) {
+                    logger.warn("fail to get concurrency of member:{}", member.pool, e);
+                    continue;
+                }
+                if (concurrency > maxConcurrency) {
+                    failover(member, now, "concurrency " + concurrency);
+                }
+            }
+        }
+    }
+
+    private void failover(Member<T> member, long now, String reason) {
+        if (member.isHealthy(now)) {
+            logger.warn("fail over member pool:{}, {}", member.pool, reason);
+        }
+        member.failedUntil = now + failoverInNanos;
+        member.failedOver = true;
+    }
+
+    /**
+     * @throws IllegalStateException if the pool was closed.
+     */
+    private Member<T> select() {
+        if (closing) {
+            throw new IllegalStateException("pool is closed.");
+        }
+        long now = nanoTime();
+        Member<T> leastLoaded = null;
+        for (List<Member<T>> tier : tiers) {
+            Member<T> selected = leastLoaded(tier, now, true);
+            if (selected == null) {
+                continue;
+            }
+            if (selected.load() < 1) {
+                return selected;
+            }
+            if (leastLoaded == null || selected.load() < leastLoaded.load()) {
+                leastLoaded = selected;
+            }
+        }
+        if (leastLoaded != null) {
+            // every tier was saturated.
+            return leastLoaded;
+        }
+        // every member was failed over, failing over again would not help.
+        return leastLoaded(members, now, false);
+    }
+
+    @Nullable
+    private Member<T> leastLoaded(List<Member<T>> candidates, long now, boolean healthyOnly) {
+        Member<T> result = null;
+        double resultLoad = Double.MAX_VALUE;
+        for (Member<T> member : candidates) {
+            if (healthyOnly && !member.isHealthy(now)) {
+                continue;
+            }
+            double load = member.load();
+            if (load < resultLoad) {
+                result = member;
+                resultLoad = load;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public <V, X extends Throwable> V supply(ThrowableFunction<T, V, X> function) throws X {
+        Member<T> member = select();
+        Attempt<T, V, X> attempt = new Attempt<>(function);
+        return call(member, attempt, () -> member.pool.supply(attempt));
+    }
+
+    @Override
+    public <V, X extends Throwable> V supply(int priority, ThrowableFunction<T, V, X> function)
+            throws X {
+        Member<T> member = select();
+        Attempt<T, V, X> attempt = new Attempt<>(function);
+        return call(member, attempt, () -> member.pool.supply(priority, attempt));
+    }
+
+    @Override
+    public <V, X extends Throwable> V supplyHedged(ThrowableFunction<T, V, X> function,
+            Duration hedgeDelay) throws X {
+        Member<T> member = select();
+        Attempt<T, V, X> attempt = new Attempt<>(function);
+        return call(member, attempt, () -> member.pool.supplyHedged(attempt, hedgeDelay));
+    }
+
+    @Override
+    public <V, X extends Throwable> V supplyHedged(ThrowableFunction<T, V, X> function) throws X {
+        Member<T> member = select();
+        Attempt<T, V, X> attempt = new Attempt<>(function);
+        return call(member, attempt, () -> member.pool.supplyHedged(attempt));
+    }
+
+    /**
+     * coalesced across members, a reused result of the selected member is still returned.
+     */
+    @Override
+    public <V, X extends Throwable> V supplyCoalesced(@Nonnull Object key,
+            ThrowableFunction<T, V, X> function) throws X {
+        // keys are not typed, a key is always used with the same type of result.
+        @SuppressWarnings("unchecked")
+        V result = (V) coalescer.coalesce(key, () -> {
+            Member<T> member = select();
+            Attempt<T, V, X> attempt = new Attempt<>(function);
+            return call(member, attempt, () -> member.pool.supplyCoalesced(key, attempt));
+        });
+        return result;
+    }
+
+    private <V, X extends Throwable> V call(Member<T> member, Attempt<T, V, X> attempt,
+            Call<V, X> call) throws X {
+        member.enter();
+        try {
+            return call.call();
+        } catch (Throwable e) {
+            countError(member, e, attempt.isFailureOf(e));
+            throw e;
+        } finally {
+            member.leave();
+        }
+    }
+
+    /**
+     * @param ofFunction {@code true} if it was thrown by the function, not the member pool.
+     */
+    private void countError(Member<T> member, Throwable e, boolean ofFunction) {
+        boolean error;
+        if (ofFunction || e instanceof RejectedExecutionException) {
+            error = errorClassifier.test(e);
+        } else {
+            error = true;
+        }
+        if (error) {
+            member.errors.increment();
+        }
+    }
+
+    /**
+     * errors of borrowed objects are unknown to the pool, only {@link #supply} counts errors.
+     */
+    @Nonnull
+    @Override
+    public Pooled<T> borrow() {
+        Member<T> member = select();
+        member.enter();
+        try {
+            return new FederatedPooled<>(member, member.pool.borrow());
+        } catch (Throwable e) {
+            countError(member, e, false);
+            member.leave();
+            throw e;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Pooled<T> borrow(int priority) {
+        Member<T> member = select();
+        member.enter();
+        try {
+            return new FederatedPooled<>(member, member.pool.borrow(priority));
+        } catch (Throwable e) {
+            countError(member, e, false);
+            member.leave();
+            throw e;
+        }
+    }
+
+    @Override
+    public void returnObject(@Nonnull Pooled<T> pooled) {
+        checkNotNull(pooled);
+        if (pooled instanceof FederatedPooled) {
+            ((FederatedPooled<T>) pooled).release();
+        } else {
+            logger.warn("invalid pooled object:{}", pooled);
+        }
+    }
+
+    /**
+     * replaced member by member, members which could not replace objects are skipped.
+     */
+    @Override
+    public void replaceAll(@Nonnull Predicate<? super T> predicate) {
+        checkNotNull(predicate);
+        for (Member<T> member : members) {
+            if (member.pool.supportsReplace()) {
+                member.pool.replaceAll(predicate);
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsReplace() {
+        return members.stream().anyMatch(member -> member.pool.supportsReplace());
+    }
+
+    @Nullable
+    @Override
+    public <V> V getStats(@Nonnull StatsKey<V> key) {
+        Object result = null;
+        for (Member<T> member : members) {
+            V value = member.pool.getStats(key);
+            if (value == null) {
+                continue;
+            }
+            if (value instanceof Integer) {
+                result = result == null ? value : (Integer) result + (Integer) value;
+            } else if (value instanceof Long) {
+                result = result == null ? value : (Long) result + (Long) value;
+            } else {
+                return null;
+            }
+        }
+        @SuppressWarnings("unchecked")
+        V merged = (V) result;
+        return merged;
+    }
+
+    /**
+     * member pools would be closed too.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        shutdownAndAwaitTermination(scheduledExecutor, 1, DAYS);
+        for (Member<T> member : members) {
+            member.pool.close();
+        }
+    }
+
+    /**
+     * member pools would be closed one by one, sharing the deadline.
+     */
+    @Nonnull
+    @Override
+    public List<T> close(@Nonnull Duration deadline) {
+        checkNotNull(deadline);
+        Deadline remaining = Deadline.after(deadline);
+        closing = true;
+        shutdownAndAwaitTermination(scheduledExecutor, remaining.remainingNanos(), NANOSECONDS);
+        List<T> forced = new ArrayList<>();
+        for (Member<T> member : members) {
+            forced.addAll(member.pool.close(Duration.ofNanos(remaining.remainingNanos())));
+        }
+        return forced;
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    public static <T> FederatedPoolBuilder<T> builder() {
+        return new FederatedPoolBuilder<>();
+    }
+
+    private interface Call<V, X extends Throwable> {
+
+        V call() throws X;
+    }
+
+    /**
+     * tells the failures of the function from the failures of the member pool.
+     */
+    private static final class Attempt<T, V, X extends Throwable> implements ThrowableFunction<T, V, X> {
+
+        private final ThrowableFunction<T, V, X> function;
+        private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+        Attempt(ThrowableFunction<T, V, X> function) {
+            this.function = checkNotNull(function);
+        }
+
+        @Override
+        public V apply(T obj) throws X {
+            try {
+                return function.apply(obj);
+            } catch (Throwable e) {
+                // hedged attempts may fail twice, the first failure is the one thrown.
+                firstFailure.compareAndSet(null, e);
+                throw e;
+            }
+        }
+
+        private boolean isFailureOf(Throwable e) {
+            return firstFailure.get() == e;
+        }
+    }
+
+    private static class Member<T> {
+
+        private final Pool<T> pool;
+        private final int capacity;
+        private final AtomicInteger inflight = new AtomicInteger();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private volatile long failedUntil;
+        private volatile boolean failedOver;
+
+        Member(Pool<T> pool, int capacity) {
+            this.pool = pool;
+            this.capacity = capacity;
+        }
+
+        private double load() {
+            return (double) inflight.get() / capacity;
+        }
+
+        private boolean isHealthy(long now) {
+            return !failedOver || now - failedUntil >= 0;
+        }
+
+        /**
+         * the concurrency of the member pool, or the concurrency through this pool if the member
+         * does not report it.
+         */
+        private int concurrency() {
+            Integer concurrency = pool.getStats(CURRENT_CONCURRENCY);
+            return concurrency == null ? inflight.get() : concurrency;
+        }
+
+        private void enter() {
+            inflight.incrementAndGet();
+            requests.increment();
+        }
+
+        private void leave() {
+            inflight.decrementAndGet();
+        }
+    }
+
+    private static class FederatedPooled<T> implements Pooled<T> {
+
+        private final Member<T> member;
+        private final Pooled<T> pooled;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        FederatedPooled(Member<T> member, Pooled<T> pooled) {
+            this.member = member;
+            this.pooled = pooled;
+        }
+
+        @Nonnull
+        @Override
+        public T get() {
+            return pooled.get();
+        }
+
+        private void release() {
+            if (!returned.compareAndSet(false, true)) {
+                logger.warn("pooled object was returned more than once:{}", pooled.get());
+                return;
+            }
+            try {
+                member.pool.returnObject(pooled);
+            } finally {
+                member.leave();
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.time.Duration.ofSeconds;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.github.phantomthief.pool.Pool;
+
+public class FederatedPoolBuilder<T> {
+
+    private static final double DEFAULT_MAX_ERROR_RATE = 0.5;
+    private static final int DEFAULT_MIN_REQUESTS = 20;
+    private static final Duration DEFAULT_FAILOVER_DURATION = ofSeconds(10);
+    private static final Duration DEFAULT_CHECK_PERIOD = ofSeconds(1);
+
+    private final List<MemberSpec<T>> preferred = new ArrayList<>();
+    private final List<MemberSpec<T>> secondary = new ArrayList<>();
+    double maxErrorRate = DEFAULT_MAX_ERROR_RATE;
+    int minRequests = DEFAULT_MIN_REQUESTS;
+    int maxConcurrency;
+    Duration failoverDuration = DEFAULT_FAILOVER_DURATION;
+    Duration checkPeriod = DEFAULT_CHECK_PERIOD;
+    Predicate<? super Throwable> errorClassifier = e -> false;
+
+    FederatedPoolBuilder() {
+    }
+
+    /**
+     * add a member of the preferred tier, e.g. the pool of the local zone.
+     *
+     * @param capacity the concurrency the member could take, the load of a member is its
+     *                 concurrency through the federated pool divided by its capacity,
+     *                 and a member with a load of {@code 1} is saturated.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public FederatedPoolBuilder<T> preferred(@Nonnull Pool<T> pool, @Nonnegative int capacity) {
+        preferred.add(new MemberSpec<>(pool, capacity));
+        return this;
+    }
+
+    /**
+     * add a member of the secondary tier, which only takes borrows after every preferred
+     * member was saturated or failed over.
+     *
+     * @see #preferred(Pool, int)
+     */
+    @CheckReturnValue
+    @Nonnull
+    public FederatedPoolBuilder<T> secondary(@Nonnull Pool<T> pool, @Nonnegative int capacity) {
+        secondary.add(new MemberSpec<>(pool, capacity));
+        return this;
+    }
+
+    /**
+     * a member would be failed over if its error rate in a check period was greater than it.
+     * default value is {@link #DEFAULT_MAX_ERROR_RATE}
+     *
+     * @param minRequests the error rate is ignored for members with fewer requests in the period,
+     *                    default value is {@link #DEFAULT_MIN_REQUESTS}
+     */
+    @CheckReturnValue
+    @Nonnull
+    public FederatedPoolBuilder<T> maxErrorRate(double rate, @Nonnegative int minRequests) {
+        checkArgument(rate >= 0 && rate <= 1);
+        checkArgument(minRequests > 0);
+        this.maxErrorRate = rate;
+        this.minRequests = minRequests;
+        return this;
+    }
+
+    @CheckReturnValue
+    @Nonnull
+    public FederatedPoolBuilder<T> maxErrorRate(double rate) {
+        return maxErrorRate(rate, minRequests);
+    }
+
+    /**
+     * which exceptions thrown by the functions passed to {@link FederatedPool#supply} count as
+     * errors of the member, e.g. {@code e -> e instanceof IOException} for network failures.
+     * failures of the member pool itself, e.g. it was closed or failed to borrow, always count,
+     * except {@link java.util.concurrent.RejectedExecutionException}s of priority shares, which
+     * are back-pressure and only count if this classifier says so. failed borrows are
+     * classified the same way.
+     * by default no exception of functions counts, so bad requests never fail over a member.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public FederatedPoolBuilder<T> errorClassifier(@Nonnull Predicate<? super Throwable> value) {
+        this.errorClassifier = checkNotNull(value);
+        return this;
+    }
+
+    /**
+     * a member would be failed over if its {@link ConcurrencyAwarePool#CURRENT_CONCURRENCY}
+     * was greater than it. not checked by default.
+     */
+    @CheckReturnValue
+    @Nonnull
+    public FederatedPoolBuilder<T> maxConcurrency(@Nonnegative int value) {
+        checkArgument(value > 0);
+        this.maxConcurrency = value;
+        return this;
+    }
+
+    /**
+     * how long a failed over member would not be borrowed from.
+     * default value is {@link #DEFAULT_FAILOVER_DURATION}
+     */
+    @CheckReturnValue
+    @Nonnull
+    public FederatedPoolBuilder<T> failoverDuration(@Nonnull Duration value) {
+        checkArgument(!value.isNegative());
+        this.failoverDuration = value;
+        return this;
+    }
+
+    /**
+     * how often members are checked for failover.
+     * default value is {@link #DEFAULT_CHECK_PERIOD}
+     */
+    @CheckReturnValue
+    @Nonnull
+    public FederatedPoolBuilder<T> checkPeriod(@Nonnull Duration value) {
+        checkArgument(value.toMillis() > 0);
+        this.checkPeriod = value;
+        return this;
+    }
+
+    @Nonnull
+    public FederatedPool<T> build() {
+        ensure();
+        return new FederatedPool<>(this);
+    }
+
+    private void ensure() {
+        if (preferred.isEmpty() && secondary.isEmpty()) {
+            throw new IllegalArgumentException("no member pool.");
+        }
+    }
+
+    /**
+     * non-empty tiers, preferred tier first.
+     */
+    List<List<MemberSpec<T>>> tiers() {
+        List<List<MemberSpec<T>>> result = new ArrayList<>(2);
+        if (!preferred.isEmpty()) {
+            result.add(preferred);
+        }
+        if (!secondary.isEmpty()) {
+            result.add(secondary);
+        }
+        return result;
+    }
+
+    static final class MemberSpec<T> {
+
+        final Pool<T> pool;
+        final int capacity;
+
+        MemberSpec(Pool<T> pool, int capacity) {
+            checkArgument(capacity > 0);
+            this.pool = checkNotNull(pool);
+            this.capacity = capacity;
+        }
+    }
+}
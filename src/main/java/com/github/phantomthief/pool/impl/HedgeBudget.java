@@ -0,0 +1,60 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * token bucket which limits hedged attempts to a ratio of all hedgeable calls,
+ * it starts full so a few hedges are allowed right after the pool was created.
+ */
+@ThreadSafe
+class HedgeBudget {
+
+    private static final long TOKEN = 1000;
+    private static final long MAX_TOKENS = 10 * TOKEN;
+
+    private final long deposit;
+    private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+
+    /**
+     * @param ratio at most {@code ratio} extra attempts per call in the long run.
+     */
+    HedgeBudget(double ratio) {
+        checkArgument(ratio > 0 && ratio <= 1);
+        this.deposit = (long) (ratio * TOKEN);
+    }
+
+    void deposit() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= MAX_TOKENS) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(MAX_TOKENS, current + deposit)));
+    }
+
+    boolean tryAcquire() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    /**
+     * give back a token which was acquired but not used.
+     */
+    void refund() {
+        long current;
+        do {
+            current = tokens.get();
+        } while (!tokens.compareAndSet(current, Math.min(MAX_TOKENS, current + TOKEN)));
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.phantomthief.pool.impl;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * keeps a random sample of recent hold times, each record replaces a random slot,
+ * so recording never contends on a shared counter.
+ */
+@ThreadSafe
+class HoldTimeRecorder {
+
+    private static final int SIZE = 1024;
+    private static final int MIN_SAMPLES = 100;
+    private static final long REFRESH_INTERVAL = SECONDS.toNanos(1);
+
+    private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+    private final LongAdder count = new LongAdder();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final double percentile;
+
+    private volatile long cachedValue = -1;
+    private volatile long lastRefresh = nanoTime() - REFRESH_INTERVAL;
+
+    /**
+     * @param percentile in (0, 100]
+     */
+    HoldTimeRecorder(double percentile) {
+        this.percentile = percentile;
+    }
+
+    void record(long holdTimeInNanos) {
+        samples.lazySet(ThreadLocalRandom.current().nextInt(SIZE), holdTimeInNanos);
+        count.increment();
+    }
+
+    /**
+     * @return the percentile of recent hold times in nanos, refreshed at most once per second,
+     * or {@code -1} if there were not enough samples yet.
+     */
+    long get() {
+        long now = nanoTime();
+        if (now - lastRefresh >= REFRESH_INTERVAL && refreshing.compareAndSet(false, true)) {
+            try {
+                if (count.sum() >= MIN_SAMPLES) {
+                    cachedValue = calculate();
+                }
+                lastRefresh = now;
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        return cachedValue;
+    }
+
+    private long calculate() {
+        long[] values = new long[SIZE];
+        int size = 0;
+        for (int i = 0; i < SIZE; i++) {
+            long value = samples.get(i);
+            if (value > 0) {
+                values[size++] = value;
+            }
+        }
+        if (size == 0) {
+            return -1;
+        }
+        Arrays.sort(values, 0, size);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return values[Math.max(0, Math.min(size - 1, index))];
+    }
+}
@@ -2,6 +2,10 @@ package com.github.phantomthief.pool.impl;
 
 import static com.github.phantomthief.util.MoreSuppliers.lazy;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
@@ -11,6 +15,7 @@ import com.github.phantomthief.pool.Pool;
 import com.github.phantomthief.pool.Pooled;
 import com.github.phantomthief.pool.StatsKey;
 import com.github.phantomthief.util.MoreSuppliers.CloseableSupplier;
+import com.github.phantomthief.util.ThrowableFunction;
 
 /**
  * @author w.vela
@@ -30,6 +35,56 @@ class LazyPool<T> implements Pool<T> {
         return factory.get().borrow();
     }
 
+    @Override
+    public <V, X extends Throwable> V supply(ThrowableFunction<T, V, X> function) throws X {
+        return factory.get().supply(function);
+    }
+
+    @Nonnull
+    @Override
+    public Pooled<T> borrow(int priority) {
+        return factory.get().borrow(priority);
+    }
+
+    @Override
+    public <V, X extends Throwable> V supply(int priority, ThrowableFunction<T, V, X> function)
+            throws X {
+        return factory.get().supply(priority, function);
+    }
+
+    @Override
+    public <V, X extends Throwable> V supplyHedged(ThrowableFunction<T, V, X> function,
+            Duration hedgeDelay) throws X {
+        return factory.get().supplyHedged(function, hedgeDelay);
+    }
+
+    @Override
+    public <V, X extends Throwable> V supplyHedged(ThrowableFunction<T, V, X> function) throws X {
+        return factory.get().supplyHedged(function);
+    }
+
+    @Override
+    public <V, X extends Throwable> V supplyCoalesced(@Nonnull Object key,
+            ThrowableFunction<T, V, X> function) throws X {
+        return factory.get().supplyCoalesced(key, function);
+    }
+
+    /**
+     * nothing to replace if the pool was not initialized yet.
+     */
+    @Override
+    public void replaceAll(@Nonnull Predicate<? super T> predicate) {
+        factory.ifPresent(pool -> pool.replaceAll(predicate));
+    }
+
+    /**
+     * the pool would not be initialized just to answer it.
+     */
+    @Override
+    public boolean supportsReplace() {
+        return factory.map(Pool::supportsReplace).orElse(true);
+    }
+
     @Nullable
     @Override
     public <V> V getStats(@Nonnull StatsKey<V> key) {
@@ -45,4 +100,12 @@ class LazyPool<T> implements Pool<T> {
     public void close() {
         factory.tryClose(Pool::close);
     }
+
+    @Nonnull
+    @Override
+    public List<T> close(@Nonnull Duration deadline) {
+        List<T> result = new ArrayList<>();
+        factory.tryClose(pool -> result.addAll(pool.close(deadline)));
+        return result;
+    }
 }
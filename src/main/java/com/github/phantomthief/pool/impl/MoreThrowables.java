@@ -0,0 +1,12 @@
+package com.github.phantomthief.pool.impl;
+
+class MoreThrowables {
+
+    /**
+     * rethrow a cause unwrapped from a future as the checked exception the caller declared.
+     */
+    @SuppressWarnings("unchecked")
+    static <X extends Throwable> X sneakyThrow(Throwable e) throws X {
+        throw (X) e;
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.phantomthief.pool.impl;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.github.phantomthief.pool.impl.ConcurrencyAdjustStrategy.AdjustResult;
+
+/**
+ * lifecycle callbacks of {@link ConcurrencyAwarePool}, register by
+ * {@link ConcurrencyAwarePoolBuilder#eventListener}.
+ *
+ * all events are dispatched asynchronously on a shared low priority thread,
+ * events may be dropped if the listener can not keep up with them.
+ */
+public interface PoolEventListener<T> {
+
+    /**
+     * @param result {@link ConcurrencyAdjustStrategy#NO_CHANGE} if nothing changed.
+     * @param snapshot concurrency of each object when the strategy was evaluated.
+     */
+    default void onAdjust(@Nullable AdjustResult result, @Nonnull List<ConcurrencyInfo> snapshot) {
+    }
+
+    default void onCreate(@Nonnull T obj, long costInNanos) {
+    }
+
+    default void onCreateFailed(@Nonnull Throwable cause) {
+    }
+
+    default void onDestroy(@Nonnull T obj, long costInNanos) {
+    }
+
+    default void onDestroyFailed(@Nonnull T obj, @Nonnull Throwable cause) {
+    }
+
+    /**
+     * a sampled borrow was not returned in time, see {@link ConcurrencyAwarePoolBuilder#leakDetection}.
+     *
+     * @param callSite where the object was borrowed.
+     */
+    default void onLeak(@Nonnull T obj, long heldInNanos, @Nonnull Throwable callSite) {
+    }
+
+    /**
+     * @param concurrency the concurrency of selected object (including this borrow).
+     */
+    default void onSlowBorrow(@Nonnull T obj, int concurrency, long costInNanos) {
+    }
+}
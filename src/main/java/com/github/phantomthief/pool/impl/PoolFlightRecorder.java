@@ -0,0 +1,67 @@
+package com.github.phantomthief.pool.impl;
+
+import java.util.function.IntSupplier;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Java Flight Recorder events of pools.
+ *
+ * this version is used before JDK 11 and records nothing, the JDK 11+ version lives in
+ * {@code src/main/java11} and is packed into the multi-release section of the jar.
+ * callers check {@link #isEnabled()} before timing anything, so it costs nothing when
+ * recording is off.
+ */
+final class PoolFlightRecorder {
+
+    private PoolFlightRecorder() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return {@code true} if any event except the periodic one is recording.
+     */
+    static boolean isEnabled() {
+        return false;
+    }
+
+    /**
+     * checked on every borrow, cheaper than {@link #isEnabled()}.
+     */
+    static boolean isSlowBorrowEnabled() {
+        return false;
+    }
+
+    static void slowBorrow(@Nonnull String pool, int concurrency, long costInNanos) {
+    }
+
+    /**
+     * @param create the create count of {@link ConcurrencyAdjustStrategy.AdjustResult}.
+     * @param evict the evict count of {@link ConcurrencyAdjustStrategy.AdjustResult}.
+     * @param size the pool size after adjusting.
+     */
+    static void adjust(@Nonnull String pool, long costInNanos, int create, int evict, int size) {
+    }
+
+    static void create(@Nonnull String pool, long costInNanos, boolean failed) {
+    }
+
+    static void destroy(@Nonnull String pool, long costInNanos, boolean failed) {
+    }
+
+    /**
+     * @param forced the object was still in use when the deadline was reached.
+     */
+    static void drainWait(@Nonnull String pool, long costInNanos, boolean forced) {
+    }
+
+    /**
+     * @return unregister the periodic event, should be called when the pool is closed.
+     */
+    @Nonnull
+    static Runnable registerPeriodic(@Nonnull String pool, @Nonnull IntSupplier count,
+            @Nonnull IntSupplier concurrency) {
+        return () -> {
+        };
+    }
+}
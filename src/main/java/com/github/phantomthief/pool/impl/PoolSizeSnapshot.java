@@ -0,0 +1,136 @@
+package com.github.phantomthief.pool.impl;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.max;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+
+/**
+ * the learned steady state of a pool, persisted to a small local file for warm restarts.
+ */
+class PoolSizeSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(PoolSizeSnapshot.class);
+
+    private static final String SIZE = "size";
+    private static final String CONCURRENCY_LIMIT = "concurrencyLimit";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String PROFILE = "profile";
+
+    private final int size;
+    private final int concurrencyLimit;
+    private final long timestamp;
+    private final double[] profile;
+
+    /**
+     * @param concurrencyLimit the average learned limit of objects, {@code 0} if not learned.
+     */
+    PoolSizeSnapshot(int size, int concurrencyLimit, long timestamp) {
+        this(size, concurrencyLimit, timestamp, null);
+    }
+
+    /**
+     * @param profile see {@link TimeOfDayProfile#snapshot()}, {@code null} if not predictive.
+     */
+    PoolSizeSnapshot(int size, int concurrencyLimit, long timestamp, @Nullable double[] profile) {
+        this.size = size;
+        this.concurrencyLimit = concurrencyLimit;
+        this.timestamp = timestamp;
+        this.profile = profile;
+    }
+
+    int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * @return {@code null} if not predictive.
+     */
+    @Nullable
+    double[] getProfile() {
+        return profile;
+    }
+
+    /**
+     * the size decays linearly from the snapshot to {@code minIdle} as the snapshot gets older.
+     */
+    int decayedSize(int minIdle, long now, @Nonnull Duration maxAge) {
+        long age = now - timestamp;
+        if (age < 0 || age >= maxAge.toMillis() || size <= minIdle) {
+            return minIdle;
+        }
+        double remaining = 1 - (double) age / maxAge.toMillis();
+        return minIdle + (int) ceil((size - minIdle) * remaining);
+    }
+
+    /**
+     * @return {@code null} if the file does not exist or could not be parsed.
+     */
+    @Nullable
+    static PoolSizeSnapshot read(@Nonnull Path file) {
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            properties.load(input);
+            String profile = properties.getProperty(PROFILE);
+            return new PoolSizeSnapshot(
+                    Integer.parseInt(properties.getProperty(SIZE)),
+                    Integer.parseInt(properties.getProperty(CONCURRENCY_LIMIT, "0")),
+                    Long.parseLong(properties.getProperty(TIMESTAMP)),
+                    profile == null ? null : Splitter.on(',').splitToList(profile).stream()
+                            .mapToDouble(Double::parseDouble)
+                            .toArray());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("fail to read pool size snapshot:{}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * write to a temp file then move it, so a crash never leaves a partial snapshot.
+     */
+    void write(@Nonnull Path file) {
+        Properties properties = new Properties();
+        properties.setProperty(SIZE, String.valueOf(max(0, size)));
+        properties.setProperty(CONCURRENCY_LIMIT, String.valueOf(concurrencyLimit));
+        properties.setProperty(TIMESTAMP, String.valueOf(timestamp));
+        if (profile != null) {
+            properties.setProperty(PROFILE, Joiner.on(',').join(
+                    Arrays.stream(profile).boxed().iterator()));
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                properties.store(output, "simple-pool size snapshot");
+            }
+            try {
+                Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warn("fail to write pool size snapshot:{}", file, e);
+        }
+    }
+}
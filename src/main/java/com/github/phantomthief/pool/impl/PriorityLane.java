@@ -0,0 +1,119 @@
+package com.github.phantomthief.pool.impl;
+
+import static java.lang.Math.max;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * counts the in-flight borrows of one priority, and caps them to a share of the pool capacity.
+ */
+@ThreadSafe
+class PriorityLane {
+
+    /**
+     * capacity may grow while waiting, so waiters re-check it at least this often.
+     */
+    private static final long MAX_WAIT_SLICE = MILLISECONDS.toNanos(10);
+
+    private final int priority;
+    private final double maxShare;
+
+    private final AtomicInteger concurrency = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxShare {@code 1} if the lane is not limited.
+     */
+    PriorityLane(int priority, double maxShare) {
+        this.priority = priority;
+        this.maxShare = maxShare;
+    }
+
+    boolean isLimited() {
+        return maxShare < 1;
+    }
+
+    int limit(long capacity) {
+        if (!isLimited()) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) max(1, Math.min(Integer.MAX_VALUE, (long) (capacity * maxShare)));
+    }
+
+    /**
+     * would wait uninterruptibly.
+     *
+     * @return {@code false} if the share was still used up after waiting {@code timeoutInNanos}.
+     */
+    boolean acquire(LongSupplier capacity, long timeoutInNanos) {
+        if (!isLimited()) {
+            concurrency.incrementAndGet();
+            borrowed.increment();
+            return true;
+        }
+        if (tryAcquire(capacity.getAsLong())) {
+            return true;
+        }
+        long deadline = nanoTime() + timeoutInNanos;
+        boolean interrupted = false;
+        waiting.incrementAndGet();
+        try {
+            synchronized (this) {
+                while (!tryAcquire(capacity.getAsLong())) {
+                    long remaining = deadline - nanoTime();
+                    if (remaining <= 0) {
+                        rejected.increment();
+                        return false;
+                    }
+                    try {
+                        NANOSECONDS.timedWait(this, Math.min(remaining, MAX_WAIT_SLICE));
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                return true;
+            }
+        } finally {
+            waiting.decrementAndGet();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean tryAcquire(long capacity) {
+        int limit = limit(capacity);
+        int current;
+        do {
+            current = concurrency.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!concurrency.compareAndSet(current, current + 1));
+        borrowed.increment();
+        return true;
+    }
+
+    void release() {
+        concurrency.decrementAndGet();
+        if (waiting.get() > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    PriorityStats stats(long capacity) {
+        return new PriorityStats(priority, concurrency.get(), limit(capacity), borrowed.sum(),
+                rejected.sum());
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.phantomthief.pool.impl;
+
+/**
+ * see {@link ConcurrencyAwarePool#PRIORITY_STATS}
+ */
+public class PriorityStats {
+
+    private final int priority;
+    private final int concurrency;
+    private final int limit;
+    private final long borrowed;
+    private final long rejected;
+
+    PriorityStats(int priority, int concurrency, int limit, long borrowed, long rejected) {
+        this.priority = priority;
+        this.concurrency = concurrency;
+        this.limit = limit;
+        this.borrowed = borrowed;
+        this.rejected = rejected;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return {@link Integer#MAX_VALUE} if the priority is not limited.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public long getBorrowed() {
+        return borrowed;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityStats{priority=" + priority + ", concurrency=" + concurrency + ", limit="
+                + limit + ", borrowed=" + borrowed + ", rejected=" + rejected + "}";
+    }
+}
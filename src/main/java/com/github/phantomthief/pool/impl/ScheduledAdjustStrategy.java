@@ -0,0 +1,108 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * keeps the pool at least at a scheduled or predicted size, and lets a reactive strategy
+ * handle the rest.
+ *
+ * the floor is the largest of the matched {@link ScheduledMinSize}s, and the size needed by
+ * the peak concurrency learned ahead of now, see {@link TimeOfDayProfile}. objects below the
+ * floor are created in one evaluation, and evictions of the reactive strategy never go below it.
+ */
+@NotThreadSafe
+class ScheduledAdjustStrategy implements ConcurrencyAdjustStrategy {
+
+    private final ConcurrencyAdjustStrategy reactive;
+    private final List<ScheduledMinSize> schedules;
+    private final TimeOfDayProfile profile;
+    private final Duration lead;
+    private final Clock clock;
+
+    /**
+     * @param reactive {@code null} if the pool only follows the schedule.
+     * @param profile {@code null} if not predictive, or the reactive strategy must have
+     *                an {@link #extendThreshold()} to convert the concurrency to a size.
+     * @param lead how far ahead of now to look up the profile.
+     */
+    ScheduledAdjustStrategy(@Nullable ConcurrencyAdjustStrategy reactive,
+            @Nonnull List<ScheduledMinSize> schedules, @Nullable TimeOfDayProfile profile,
+            @Nullable Duration lead, @Nonnull Clock clock) {
+        checkArgument(profile == null
+                || reactive != null && reactive.extendThreshold() != Integer.MAX_VALUE);
+        checkArgument(profile == null || lead != null);
+        this.reactive = reactive;
+        this.schedules = new ArrayList<>(schedules);
+        this.profile = profile;
+        this.lead = lead;
+        this.clock = checkNotNull(clock);
+    }
+
+    @Nullable
+    @Override
+    public AdjustResult adjust(@Nonnull Collection<? extends ConcurrencyInfo> current)
+            throws Throwable {
+        LocalDateTime now = LocalDateTime.now(clock);
+        int floor = 0;
+        for (ScheduledMinSize schedule : schedules) {
+            if (schedule.matches(now)) {
+                floor = Math.max(floor, schedule.getMinSize());
+            }
+        }
+        if (profile != null) {
+            long concurrency = 0;
+            for (ConcurrencyInfo info : current) {
+                concurrency += info.currentConcurrency();
+            }
+            profile.record(now, concurrency);
+            long predicted = profile.predict(now.toLocalTime(), lead);
+            if (predicted > 0) {
+                int threshold = reactive.extendThreshold();
+                floor = (int) Math.max(floor, Math.min(Integer.MAX_VALUE,
+                        (predicted + threshold - 1) / threshold));
+            }
+        }
+        int size = current.size();
+        if (size < floor) {
+            return new AdjustResult(null, floor - size);
+        }
+        AdjustResult result = reactive == null ? NO_CHANGE : reactive.adjust(current);
+        if (result == null || result.getEvict() == null) {
+            return result;
+        }
+        int evictable = size - floor;
+        Collection<ConcurrencyInfo> evict = result.getEvict();
+        if (evict.size() <= evictable) {
+            return result;
+        }
+        if (evictable <= 0) {
+            return result.getCreate() > 0 ? new AdjustResult(null, result.getCreate()) : NO_CHANGE;
+        }
+        return new AdjustResult(new ArrayList<>(evict).subList(0, evictable), result.getCreate());
+    }
+
+    /**
+     * @return {@code null} if not predictive.
+     */
+    @Nullable
+    TimeOfDayProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public int extendThreshold() {
+        return reactive == null ? Integer.MAX_VALUE : reactive.extendThreshold();
+    }
+}
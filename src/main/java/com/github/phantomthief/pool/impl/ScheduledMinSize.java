@@ -0,0 +1,52 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * a minimum pool size during a daily time window, on some days of week.
+ * a window whose end is before its start crosses midnight, and belongs to the day it starts.
+ */
+@Immutable
+class ScheduledMinSize {
+
+    private final Set<DayOfWeek> days;
+    private final LocalTime from;
+    private final LocalTime to;
+    private final int minSize;
+
+    ScheduledMinSize(@Nonnull Set<DayOfWeek> days, @Nonnull LocalTime from, @Nonnull LocalTime to,
+            @Nonnegative int minSize) {
+        checkArgument(!days.isEmpty());
+        checkArgument(!from.equals(to));
+        checkArgument(minSize > 0);
+        this.days = EnumSet.copyOf(days);
+        this.from = checkNotNull(from);
+        this.to = checkNotNull(to);
+        this.minSize = minSize;
+    }
+
+    boolean matches(@Nonnull LocalDateTime now) {
+        LocalTime time = now.toLocalTime();
+        DayOfWeek day = now.getDayOfWeek();
+        if (from.isBefore(to)) {
+            return days.contains(day) && !time.isBefore(from) && time.isBefore(to);
+        }
+        return days.contains(day) && !time.isBefore(from)
+                || days.contains(day.minus(1)) && time.isBefore(to);
+    }
+
+    int getMinSize() {
+        return minSize;
+    }
+}
@@ -2,8 +2,13 @@ package com.github.phantomthief.pool.impl;
 
 import static java.lang.Thread.MIN_PRIORITY;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.DiscardPolicy;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
@@ -13,10 +18,32 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  */
 class SharedResource {
 
+    private static final int EVENT_QUEUE_SIZE = 10000;
+    static final int HEDGE_MAX_THREADS = Math.max(16,
+            Runtime.getRuntime().availableProcessors() * 4);
+
     static Executor cleanupExecutor() {
         return LazyHolder.EXECUTOR;
     }
 
+    /**
+     * bounded, it rejects new attempts once all threads are busy.
+     */
+    static Executor hedgeExecutor() {
+        return HedgeLazyHolder.EXECUTOR;
+    }
+
+    static Executor batchExecutor() {
+        return BatchLazyHolder.EXECUTOR;
+    }
+
+    /**
+     * single thread with a bounded queue, events would be discarded if the queue is full.
+     */
+    static Executor eventExecutor() {
+        return EventLazyHolder.EXECUTOR;
+    }
+
     private static final class LazyHolder {
 
         private static final Executor EXECUTOR = newCachedThreadPool(new ThreadFactoryBuilder()
@@ -24,4 +51,37 @@ class SharedResource {
                 .setPriority(MIN_PRIORITY)
                 .build());
     }
+
+    private static final class HedgeLazyHolder {
+
+        private static final Executor EXECUTOR = new ThreadPoolExecutor(0, HEDGE_MAX_THREADS, 60,
+                SECONDS, new SynchronousQueue<>(), new ThreadFactoryBuilder()
+                        .setNameFormat("simple-pool-hedge-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    private static final class BatchLazyHolder {
+
+        private static final Executor EXECUTOR = newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("simple-pool-batch-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    private static final class EventLazyHolder {
+
+        private static final Executor EXECUTOR;
+
+        static {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, SECONDS,
+                    new ArrayBlockingQueue<>(EVENT_QUEUE_SIZE), new ThreadFactoryBuilder()
+                            .setNameFormat("simple-pool-event-%d")
+                            .setPriority(MIN_PRIORITY)
+                            .setDaemon(true)
+                            .build(), new DiscardPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
 }
@@ -2,8 +2,6 @@ package com.github.phantomthief.pool.impl;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Collections.singleton;
-import static java.util.Comparator.comparingInt;
-import static java.util.stream.Collectors.toList;
 
 import java.util.Collection;
 import java.util.List;
@@ -46,10 +44,7 @@ class SimpleConcurrencyAdjustStrategy implements ConcurrencyAdjustStrategy {
     @Nullable
     @Override
     public AdjustResult adjust(@Nonnull Collection<? extends ConcurrencyInfo> current) {
-        List<? extends ConcurrencyInfo> minList = current.stream()
-                .sorted(comparingInt(ConcurrencyInfo::currentConcurrency))
-                .limit(2)
-                .collect(toList());
+        List<? extends ConcurrencyInfo> minList = ConcurrencyIndex.leastConcurrency(current, 2);
         ConcurrencyInfo first = minList.get(0);
         if (first.currentConcurrency() >= extendThreshold) {
             continuousExtendCount++;
@@ -81,6 +76,11 @@ class SimpleConcurrencyAdjustStrategy implements ConcurrencyAdjustStrategy {
         }
     }
 
+    @Override
+    public int extendThreshold() {
+        return extendThreshold;
+    }
+
     private void resetContinuousCounter() {
         continuousExtendCount = 0;
         continuousShrinkCount = 0;
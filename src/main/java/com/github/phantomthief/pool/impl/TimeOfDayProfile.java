@@ -0,0 +1,110 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.max;
+import static java.util.concurrent.TimeUnit.DAYS;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * the peak of a value in each time-of-day bucket, learned across days.
+ *
+ * the peak of a bucket is folded into the profile once the bucket was passed,
+ * as an exponentially weighted moving average over days, so a changed pattern is learned
+ * in a few days and one unusual day does not dominate.
+ */
+@NotThreadSafe
+class TimeOfDayProfile {
+
+    private static final long SECONDS_OF_DAY = DAYS.toSeconds(1);
+
+    private final long bucketInSeconds;
+    private final double learningRate;
+    /**
+     * {@link Double#NaN} if not learned yet.
+     */
+    private final double[] profile;
+
+    private int currentBucket = -1;
+    private long currentDay;
+    private long currentPeak;
+
+    /**
+     * @param bucket must divide a day.
+     * @param learningRate the weight of the latest day.
+     */
+    TimeOfDayProfile(@Nonnull Duration bucket, double learningRate) {
+        checkArgument(bucket.getSeconds() > 0 && SECONDS_OF_DAY % bucket.getSeconds() == 0);
+        checkArgument(learningRate > 0 && learningRate <= 1);
+        this.bucketInSeconds = bucket.getSeconds();
+        this.learningRate = learningRate;
+        this.profile = new double[(int) (SECONDS_OF_DAY / bucketInSeconds)];
+        Arrays.fill(profile, Double.NaN);
+    }
+
+    void record(@Nonnull LocalDateTime now, long value) {
+        int bucket = bucketOf(now.toLocalTime());
+        long day = now.toLocalDate().toEpochDay();
+        if (bucket == currentBucket && day == currentDay) {
+            currentPeak = max(currentPeak, value);
+            return;
+        }
+        if (currentBucket >= 0) {
+            double learned = profile[currentBucket];
+            profile[currentBucket] = Double.isNaN(learned) ? currentPeak
+                                                           : learned + learningRate * (currentPeak - learned);
+        }
+        currentBucket = bucket;
+        currentDay = day;
+        currentPeak = value;
+    }
+
+    /**
+     * @return the max learned peak of buckets from {@code time} to {@code time + lead},
+     *         {@code -1} if none of them was learned.
+     */
+    long predict(@Nonnull LocalTime time, @Nonnull Duration lead) {
+        int from = bucketOf(time);
+        int count = (int) Math.min(profile.length, lead.getSeconds() / bucketInSeconds + 1);
+        double result = -1;
+        for (int i = 0; i < count; i++) {
+            double learned = profile[(from + i) % profile.length];
+            if (!Double.isNaN(learned)) {
+                result = max(result, learned);
+            }
+        }
+        return result < 0 ? -1 : (long) Math.ceil(result);
+    }
+
+    /**
+     * @return the learned peak of each bucket, {@link Double#NaN} if not learned yet.
+     */
+    @Nonnull
+    double[] snapshot() {
+        return profile.clone();
+    }
+
+    /**
+     * restore what was learned before a restart, see {@link #snapshot()}.
+     *
+     * @return {@code false} if it was learned with another bucket.
+     */
+    boolean restore(@Nullable double[] learned) {
+        if (learned == null || learned.length != profile.length) {
+            return false;
+        }
+        System.arraycopy(learned, 0, profile, 0, profile.length);
+        return true;
+    }
+
+    private int bucketOf(LocalTime time) {
+        return (int) (time.toSecondOfDay() / bucketInSeconds);
+    }
+}
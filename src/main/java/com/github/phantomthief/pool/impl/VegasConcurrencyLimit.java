@@ -0,0 +1,86 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.ceil;
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * learns the concurrency limit of a single pooled object, TCP Vegas style.
+ *
+ * the minimum observed round trip time is taken as the no-load latency, and
+ * {@code limit * (1 - noLoadRtt / rtt)} estimates how many calls are queuing inside the object.
+ * the limit grows while the queue is short and shrinks once it gets long.
+ * the no-load latency is re-probed periodically so the limit can follow a changed backend.
+ */
+@ThreadSafe
+class VegasConcurrencyLimit {
+
+    private static final int MIN_LIMIT = 1;
+    private static final int PROBE_MULTIPLIER = 30;
+
+    private final int maxLimit;
+
+    private volatile int limit;
+
+    private double estimatedLimit;
+    private long noLoadRtt;
+    private long samplesSinceProbe;
+
+    VegasConcurrencyLimit(@Nonnegative int initialLimit, @Nonnegative int maxLimit) {
+        checkArgument(initialLimit >= MIN_LIMIT && initialLimit <= maxLimit);
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param rttInNanos how long the object was held by a call.
+     * @param inflight the concurrency of the object when the call began, including itself.
+     */
+    synchronized void onSample(long rttInNanos, int inflight) {
+        if (rttInNanos <= 0) {
+            return;
+        }
+        if (++samplesSinceProbe >= PROBE_MULTIPLIER * (long) limit) {
+            samplesSinceProbe = 0;
+            noLoadRtt = rttInNanos;
+            return;
+        }
+        if (noLoadRtt == 0 || rttInNanos < noLoadRtt) {
+            noLoadRtt = rttInNanos;
+            return;
+        }
+
+        double current = estimatedLimit;
+        double log = max(1, log10(current));
+        double alpha = 3 * log;
+        double beta = 6 * log;
+        int queue = (int) ceil(current * (1 - (double) noLoadRtt / rttInNanos));
+
+        double next;
+        if (queue <= log) {
+            next = current + beta;
+        } else if (queue < alpha) {
+            next = current + log;
+        } else if (queue > beta) {
+            next = current - log;
+        } else {
+            return;
+        }
+        // don't grow the limit if the object was not really used up to it.
+        if (next > current && inflight * 2 < current) {
+            return;
+        }
+        estimatedLimit = max(MIN_LIMIT, min(maxLimit, next));
+        limit = (int) estimatedLimit;
+    }
+}
@@ -0,0 +1,231 @@
+package com.github.phantomthief.pool.impl;
+
+import java.util.function.IntSupplier;
+
+import javax.annotation.Nonnull;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of pools, the JDK 11+ version of the multi-release jar.
+ *
+ * events are only allocated after their types were checked enabled, so it costs nothing
+ * when recording is off.
+ */
+final class PoolFlightRecorder {
+
+    private static final String CATEGORY = "Simple Pool";
+
+    private static final EventType SLOW_BORROW = EventType.getEventType(SlowBorrowEvent.class);
+    private static final EventType ADJUST = EventType.getEventType(AdjustEvent.class);
+    private static final EventType CREATE = EventType.getEventType(CreateEvent.class);
+    private static final EventType DESTROY = EventType.getEventType(DestroyEvent.class);
+    private static final EventType DRAIN_WAIT = EventType.getEventType(DrainWaitEvent.class);
+
+    private PoolFlightRecorder() {
+        throw new UnsupportedOperationException();
+    }
+
+    static boolean isEnabled() {
+        return SLOW_BORROW.isEnabled() || ADJUST.isEnabled() || CREATE.isEnabled()
+                || DESTROY.isEnabled() || DRAIN_WAIT.isEnabled();
+    }
+
+    static boolean isSlowBorrowEnabled() {
+        return SLOW_BORROW.isEnabled();
+    }
+
+    static void slowBorrow(@Nonnull String pool, int concurrency, long costInNanos) {
+        if (!SLOW_BORROW.isEnabled()) {
+            return;
+        }
+        SlowBorrowEvent event = new SlowBorrowEvent();
+        event.pool = pool;
+        event.concurrency = concurrency;
+        event.cost = costInNanos;
+        event.commit();
+    }
+
+    static void adjust(@Nonnull String pool, long costInNanos, int create, int evict, int size) {
+        if (!ADJUST.isEnabled()) {
+            return;
+        }
+        AdjustEvent event = new AdjustEvent();
+        event.pool = pool;
+        event.cost = costInNanos;
+        event.create = create;
+        event.evict = evict;
+        event.size = size;
+        event.commit();
+    }
+
+    static void create(@Nonnull String pool, long costInNanos, boolean failed) {
+        if (!CREATE.isEnabled()) {
+            return;
+        }
+        CreateEvent event = new CreateEvent();
+        event.pool = pool;
+        event.cost = costInNanos;
+        event.failed = failed;
+        event.commit();
+    }
+
+    static void destroy(@Nonnull String pool, long costInNanos, boolean failed) {
+        if (!DESTROY.isEnabled()) {
+            return;
+        }
+        DestroyEvent event = new DestroyEvent();
+        event.pool = pool;
+        event.cost = costInNanos;
+        event.failed = failed;
+        event.commit();
+    }
+
+    static void drainWait(@Nonnull String pool, long costInNanos, boolean forced) {
+        if (!DRAIN_WAIT.isEnabled()) {
+            return;
+        }
+        DrainWaitEvent event = new DrainWaitEvent();
+        event.pool = pool;
+        event.cost = costInNanos;
+        event.forced = forced;
+        event.commit();
+    }
+
+    @Nonnull
+    static Runnable registerPeriodic(@Nonnull String pool, @Nonnull IntSupplier count,
+            @Nonnull IntSupplier concurrency) {
+        Runnable hook = () -> {
+            PoolStatsEvent event = new PoolStatsEvent();
+            event.pool = pool;
+            event.count = count.getAsInt();
+            event.concurrency = concurrency.getAsInt();
+            event.commit();
+        };
+        FlightRecorder.addPeriodicEvent(PoolStatsEvent.class, hook);
+        return () -> FlightRecorder.removePeriodicEvent(hook);
+    }
+
+    @Name("com.github.phantomthief.pool.SlowBorrow")
+    @Label("Slow Borrow")
+    @Description("A borrow slower than the slow borrow threshold")
+    @Category(CATEGORY)
+    static final class SlowBorrowEvent extends Event {
+
+        @Label("Pool")
+        String pool;
+
+        @Label("Concurrency")
+        @Description("Concurrency of the selected object, including this borrow")
+        int concurrency;
+
+        @Label("Cost")
+        @Timespan
+        long cost;
+    }
+
+    @Name("com.github.phantomthief.pool.Adjust")
+    @Label("Pool Adjust")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class AdjustEvent extends Event {
+
+        @Label("Pool")
+        String pool;
+
+        @Label("Cost")
+        @Timespan
+        long cost;
+
+        @Label("Create")
+        @Description("Objects the strategy asked to create")
+        int create;
+
+        @Label("Evict")
+        @Description("Objects the strategy asked to evict")
+        int evict;
+
+        @Label("Size")
+        @Description("Pool size after adjusting")
+        int size;
+    }
+
+    @Name("com.github.phantomthief.pool.Create")
+    @Label("Object Create")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class CreateEvent extends Event {
+
+        @Label("Pool")
+        String pool;
+
+        @Label("Cost")
+        @Timespan
+        long cost;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("com.github.phantomthief.pool.Destroy")
+    @Label("Object Destroy")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class DestroyEvent extends Event {
+
+        @Label("Pool")
+        String pool;
+
+        @Label("Cost")
+        @Timespan
+        long cost;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("com.github.phantomthief.pool.DrainWait")
+    @Label("Drain Wait")
+    @Description("Waiting for an object to be returned before destroying it")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class DrainWaitEvent extends Event {
+
+        @Label("Pool")
+        String pool;
+
+        @Label("Cost")
+        @Timespan
+        long cost;
+
+        @Label("Forced")
+        @Description("The object was still in use at the close deadline")
+        boolean forced;
+    }
+
+    @Name("com.github.phantomthief.pool.Stats")
+    @Label("Pool Stats")
+    @Category(CATEGORY)
+    @Period("1 s")
+    @StackTrace(false)
+    static final class PoolStatsEvent extends Event {
+
+        @Label("Pool")
+        String pool;
+
+        @Label("Current Count")
+        int count;
+
+        @Label("Current Concurrency")
+        int concurrency;
+    }
+}
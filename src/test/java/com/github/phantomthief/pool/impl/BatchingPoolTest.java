@@ -0,0 +1,134 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static java.time.Duration.ofMillis;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.pool.Pool;
+
+class BatchingPoolTest {
+
+    @Test
+    void testBatch() throws Exception {
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .minIdle(2)
+                .build(() -> "!");
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        BatchingPool<String, Integer, String> batchingPool = BatchingPool.builder(pool)
+                .maxBatchSize(50)
+                .linger(ofMillis(5))
+                .<Integer, String> build((suffix, items) -> {
+                    batchSizes.add(items.size());
+                    return items.stream().map(it -> it + suffix).collect(toList());
+                });
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(batchingPool.submit(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i + "!", futures.get(i).get(1, SECONDS));
+        }
+        assertEquals(1000, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(batchSizes.size() < 1000);
+        assertTrue(batchSizes.stream().allMatch(it -> it <= 50));
+
+        // a single operation would be dispatched after linger.
+        assertEquals("1!", batchingPool.submit(1).get(1, SECONDS));
+
+        batchingPool.close();
+        assertThrows(ExecutionException.class, () -> batchingPool.submit(1).get());
+        pool.close();
+    }
+
+    @Test
+    void testBoundedDispatchers() throws Exception {
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .minIdle(2)
+                .build(() -> "!");
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger executed = new AtomicInteger();
+        BatchingPool<String, Integer, String> batchingPool = BatchingPool.builder(pool)
+                .maxBatchSize(50)
+                .maxConcurrentBatches(2)
+                .<Integer, String> build((suffix, items) -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleepUninterruptibly(1, MILLISECONDS);
+                    running.decrementAndGet();
+                    executed.addAndGet(items.size());
+                    return items.stream().map(it -> it + suffix).collect(toList());
+                });
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            futures.add(batchingPool.submit(i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i + "!", futures.get(i).get(10, SECONDS));
+        }
+        assertEquals(5000, executed.get());
+        assertTrue(maxRunning.get() <= 2);
+        batchingPool.close();
+        pool.close();
+    }
+
+    @Test
+    void testDefaultConcurrentBatches() throws Exception {
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .minIdle(4)
+                .build(() -> "!");
+        pool.run(s -> { });
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        // as many batches as the objects of the pool.
+        BatchingPool<String, Integer, String> batchingPool = BatchingPool.builder(pool)
+                .maxBatchSize(50)
+                .<Integer, String> build((suffix, items) -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleepUninterruptibly(5, MILLISECONDS);
+                    running.decrementAndGet();
+                    return items.stream().map(it -> it + suffix).collect(toList());
+                });
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            futures.add(batchingPool.submit(i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i + "!", futures.get(i).get(10, SECONDS));
+        }
+        assertTrue(maxRunning.get() > 1);
+        assertTrue(maxRunning.get() <= 4);
+        batchingPool.close();
+        pool.close();
+    }
+
+    @Test
+    void testFailure() {
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .build(() -> "test");
+        BatchingPool<String, Integer, String> batchingPool = BatchingPool.builder(pool)
+                .<Integer, String> build((obj, items) -> emptyList());
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> batchingPool.submit(1).get(1, SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        batchingPool.close();
+        pool.close();
+    }
+}
@@ -1,9 +1,19 @@
 package com.github.phantomthief.pool.impl;
 
+import static com.github.phantomthief.pool.impl.ConcurrencyAwarePool.CURRENT_CONCURRENCY;
 import static com.github.phantomthief.pool.impl.ConcurrencyAwarePool.CURRENT_COUNT;
+import static com.github.phantomthief.pool.impl.ConcurrencyAwarePool.LEAKED_COUNT;
+import static com.github.phantomthief.pool.impl.ConcurrencyAwarePool.OTHER_PRIORITIES;
+import static com.github.phantomthief.pool.impl.ConcurrencyAwarePool.PRIORITY_STATS;
 import static com.google.common.util.concurrent.MoreExecutors.shutdownAndAwaitTermination;
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
 import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static java.lang.Integer.valueOf;
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofMinutes;
 import static java.time.Duration.ofSeconds;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import static java.util.concurrent.TimeUnit.DAYS;
@@ -11,21 +21,36 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.phantomthief.pool.Pool;
+import com.github.phantomthief.pool.Pooled;
+import com.github.phantomthief.pool.impl.ConcurrencyAdjustStrategy.AdjustResult;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
 
 /**
@@ -119,6 +144,421 @@ class ConcurrencyAwarePoolTest {
         assertThrows(IllegalStateException.class, pool::borrow);
         assertThrows(IllegalArgumentException.class, () -> ConcurrencyAwarePool.<String> builder()
                 .minIdle(10).maxSize(5).build(() -> "test"));
+        assertThrows(IllegalArgumentException.class, () -> ConcurrencyAwarePool.<String> builder()
+                .predictivePreScale(ofMinutes(10)).build(() -> "test"));
+    }
+
+    @Test
+    void testEventListener() throws InterruptedException {
+        CountDownLatch created = new CountDownLatch(2);
+        CountDownLatch slowBorrowed = new CountDownLatch(1);
+        CountDownLatch destroyed = new CountDownLatch(2);
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .minIdle(2)
+                .destroy(s -> {})
+                .slowBorrowThreshold(Duration.ZERO)
+                .eventListener(new PoolEventListener<Object>() {
+
+                    @Override
+                    public void onCreate(Object obj, long costInNanos) {
+                        created.countDown();
+                    }
+
+                    @Override
+                    public void onSlowBorrow(Object obj, int concurrency, long costInNanos) {
+                        assertEquals(1, concurrency);
+                        slowBorrowed.countDown();
+                    }
+
+                    @Override
+                    public void onDestroy(Object obj, long costInNanos) {
+                        destroyed.countDown();
+                    }
+                })
+                .build(() -> "test");
+        pool.run(s -> logger.info("{}", s));
+        assertTrue(created.await(1, SECONDS));
+        assertTrue(slowBorrowed.await(1, SECONDS));
+        pool.close();
+        assertTrue(destroyed.await(1, SECONDS));
+    }
+
+    @Test
+    void testEagerExtend() {
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .evaluatePeriod(ofMinutes(1))
+                .adaptiveEvaluatePeriod(ofMinutes(10))
+                // a cold pool wakes up the adjust at once, no matter how long the interval is.
+                .eagerExtend(ofMinutes(1))
+                .simpleThresholdStrategy(1, 0.5)
+                .build(() -> "test");
+        Pooled<String> first = pool.borrow();
+        Pooled<String> second = pool.borrow();
+        for (int i = 0; i < 100 && !valueOf(2).equals(pool.getStats(CURRENT_COUNT)); i++) {
+            sleepUninterruptibly(10, MILLISECONDS);
+        }
+        assertEquals(valueOf(2), pool.getStats(CURRENT_COUNT));
+        pool.returnObject(first);
+        pool.returnObject(second);
+        pool.close();
+    }
+
+    @Test
+    void testHedged() {
+        AtomicInteger counter = new AtomicInteger();
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .minIdle(2)
+                .build(() -> counter.getAndIncrement() == 0 ? "slow" : "fast");
+        long start = System.nanoTime();
+        String result = pool.supplyHedged(s -> {
+            if ("slow".equals(s)) {
+                sleepUninterruptibly(1, SECONDS);
+            }
+            return s;
+        }, Duration.ofMillis(50));
+        assertEquals("fast", result);
+        assertTrue(System.nanoTime() - start < SECONDS.toNanos(1));
+        for (int i = 0; i < 200 && !valueOf(0).equals(pool.getStats(CURRENT_CONCURRENCY)); i++) {
+            sleepUninterruptibly(10, MILLISECONDS);
+        }
+        assertEquals(valueOf(0), pool.getStats(CURRENT_CONCURRENCY));
+
+        assertThrows(IllegalArgumentException.class, () -> pool.supplyHedged(s -> {
+            throw new IllegalArgumentException();
+        }, Duration.ofMillis(50)));
+        pool.close();
+
+        // no other object to hedge on, the failure of the primary is still thrown.
+        Pool<String> single = ConcurrencyAwarePool.<String> builder().build(() -> "single");
+        assertThrows(IllegalArgumentException.class, () -> single.supplyHedged(s -> {
+            sleepUninterruptibly(100, MILLISECONDS);
+            throw new IllegalArgumentException();
+        }, Duration.ofMillis(10)));
+        single.close();
+    }
+
+    @Test
+    void testHedgeExecutorSaturated() {
+        // leave only one thread of the hedge executor, for the primary attempt.
+        CountDownLatch blocking = new CountDownLatch(1);
+        for (int i = 0; i < SharedResource.HEDGE_MAX_THREADS - 1; i++) {
+            SharedResource.hedgeExecutor().execute(() -> awaitUninterruptibly(blocking));
+        }
+        AtomicInteger counter = new AtomicInteger();
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .minIdle(2)
+                .build(() -> counter.getAndIncrement() == 0 ? "slow" : "fast");
+        try {
+            // the hedge was rejected, it's skipped rather than run in the caller thread.
+            assertEquals("slow", pool.supplyHedged(s -> {
+                if ("slow".equals(s)) {
+                    sleepUninterruptibly(300, MILLISECONDS);
+                }
+                return s;
+            }, Duration.ofMillis(20)));
+            assertEquals(valueOf(0), pool.getStats(CURRENT_CONCURRENCY));
+        } finally {
+            blocking.countDown();
+        }
+        pool.close();
+    }
+
+    @Test
+    void testPriority() {
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .simpleThresholdStrategy(10, 0.5)
+                .priorityShare(1, 0.3)
+                .build(() -> "test");
+        List<Pooled<String>> borrowed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            borrowed.add(pool.borrow(1));
+        }
+        assertThrows(RejectedExecutionException.class, () -> pool.borrow(1));
+        assertThrows(RejectedExecutionException.class, () -> pool.supply(1, s -> s));
+        for (int i = 0; i < 7; i++) {
+            borrowed.add(pool.borrow(2 + i));
+        }
+        assertEquals("test", pool.supply(2, s -> s));
+
+        Map<Integer, PriorityStats> stats = pool.getStats(PRIORITY_STATS);
+        assertEquals(3, stats.get(1).getConcurrency());
+        assertEquals(3, stats.get(1).getLimit());
+        assertEquals(2, stats.get(1).getRejected());
+        // unconfigured priorities share one lane.
+        assertEquals(2, stats.size());
+        assertEquals(7, stats.get(OTHER_PRIORITIES).getConcurrency());
+        assertEquals(Integer.MAX_VALUE, stats.get(OTHER_PRIORITIES).getLimit());
+
+        borrowed.forEach(pool::returnObject);
+        assertEquals(valueOf(0), pool.getStats(CURRENT_CONCURRENCY));
+        assertEquals("test", pool.supply(1, s -> s));
+        pool.close();
+
+        assertThrows(IllegalArgumentException.class, () -> ConcurrencyAwarePool.<String> builder()
+                .priorityShare(1, 0.3).build(() -> "test"));
+    }
+
+    @Test
+    void testSlowBorrowInPriorityLane() {
+        List<Long> slowBorrows = new CopyOnWriteArrayList<>();
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .simpleThresholdStrategy(10, 0.5)
+                .priorityShare(1, 0.3)
+                .priorityWaitTimeout(ofSeconds(5))
+                .slowBorrowThreshold(ofMillis(100))
+                .eventListener(new PoolEventListener<Object>() {
+
+                    @Override
+                    public void onSlowBorrow(Object obj, int concurrency, long costInNanos) {
+                        slowBorrows.add(costInNanos);
+                    }
+                })
+                .build(() -> "test");
+        List<Pooled<String>> borrowed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            borrowed.add(pool.borrow(1));
+        }
+        ScheduledExecutorService executor = newSingleThreadScheduledExecutor();
+        executor.schedule(() -> pool.returnObject(borrowed.get(0)), 300, MILLISECONDS);
+
+        // the object was ready at once, the borrow was slow waiting for the share.
+        borrowed.set(0, pool.borrow(1));
+        for (int i = 0; i < 100 && slowBorrows.isEmpty(); i++) {
+            sleepUninterruptibly(10, MILLISECONDS);
+        }
+        assertEquals(1, slowBorrows.size());
+        assertTrue(slowBorrows.get(0) >= MILLISECONDS.toNanos(250));
+        borrowed.forEach(pool::returnObject);
+        shutdownAndAwaitTermination(executor, 1, DAYS);
+        pool.close();
+    }
+
+    @Test
+    void testReplaceAll() {
+        AtomicInteger counter = new AtomicInteger();
+        Set<String> destroyed = new CopyOnWriteArraySet<>();
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .minIdle(3)
+                .replaceParallelism(2)
+                .destroy(destroyed::add)
+                .build(() -> String.valueOf(counter.getAndIncrement()));
+        pool.run(s -> assertTrue(Integer.parseInt(s) < 3));
+        assertTrue(pool.supportsReplace());
+
+        pool.replaceAll(s -> !"1".equals(s));
+        assertEquals(ImmutableSet.of("0", "2"), destroyed);
+        assertEquals(valueOf(3), pool.getStats(CURRENT_COUNT));
+
+        pool.replaceAll();
+        assertEquals(ImmutableSet.of("0", "1", "2", "3", "4"), destroyed);
+        assertEquals(valueOf(3), pool.getStats(CURRENT_COUNT));
+        pool.run(s -> assertTrue(Integer.parseInt(s) >= 5));
+        pool.close();
+    }
+
+    @Test
+    void testPersistSize(@TempDir Path dir) {
+        Path file = dir.resolve("pool.snapshot");
+        new PoolSizeSnapshot(5, 0, System.currentTimeMillis()).write(file);
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .maxSize(4)
+                .persistSize(file)
+                .build(() -> "test");
+        pool.run(s -> {});
+        for (int i = 0; i < 100 && !valueOf(4).equals(pool.getStats(CURRENT_COUNT)); i++) {
+            sleepUninterruptibly(10, MILLISECONDS);
+        }
+        assertEquals(valueOf(4), pool.getStats(CURRENT_COUNT));
+        pool.close();
+        // closing again never overwrites the snapshot with an empty pool.
+        pool.close();
+        assertEquals(4, PoolSizeSnapshot.read(file).decayedSize(1, System.currentTimeMillis(), ofMinutes(1)));
+
+        PoolSizeSnapshot stale = new PoolSizeSnapshot(11, 0, System.currentTimeMillis() - 30_000);
+        assertEquals(6, stale.decayedSize(1, System.currentTimeMillis(), ofMinutes(1)));
+        assertEquals(1, stale.decayedSize(1, System.currentTimeMillis(), ofSeconds(30)));
+    }
+
+    @Test
+    void testPersistProfile(@TempDir Path dir) {
+        Path file = dir.resolve("pool.snapshot");
+        // a day ago, with 100 concurrency learned all the day.
+        double[] learned = new double[288];
+        Arrays.fill(learned, 100);
+        new PoolSizeSnapshot(1, 0, System.currentTimeMillis() - DAYS.toMillis(1), learned).write(file);
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .evaluatePeriod(ofMillis(100))
+                .simpleThresholdStrategy(10, 0.5)
+                .predictivePreScale(ofMinutes(15))
+                .persistSize(file)
+                .build(() -> "test");
+        pool.run(s -> {});
+        for (int i = 0; i < 100 && !valueOf(10).equals(pool.getStats(CURRENT_COUNT)); i++) {
+            sleepUninterruptibly(10, MILLISECONDS);
+        }
+        assertEquals(valueOf(10), pool.getStats(CURRENT_COUNT));
+        pool.close();
+        double[] persisted = PoolSizeSnapshot.read(file).getProfile();
+        assertEquals(288, persisted.length);
+        assertTrue(Arrays.stream(persisted).anyMatch(it -> it == 100));
+    }
+
+    @Test
+    void testCloseWithDeadline() {
+        AtomicInteger counter = new AtomicInteger();
+        Set<String> destroyed = new CopyOnWriteArraySet<>();
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .minIdle(10)
+                .destroy(destroyed::add)
+                .build(() -> String.valueOf(counter.getAndIncrement()));
+        Pooled<String> leaked = pool.borrow();
+        long start = System.nanoTime();
+        List<String> forced = pool.close(ofMillis(500));
+        assertTrue(System.nanoTime() - start < SECONDS.toNanos(2));
+        assertEquals(singletonList(leaked.get()), forced);
+        assertEquals(10, destroyed.size());
+
+        // a huge deadline never overflows.
+        Pool<String> idle = ConcurrencyAwarePool.<String> builder().build(() -> "idle");
+        idle.run(s -> { });
+        assertEquals(emptyList(), idle.close(Duration.ofSeconds(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void testCloseWhileAdjusting() {
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch created = new CountDownLatch(1);
+        AtomicInteger counter = new AtomicInteger();
+        Set<String> destroyed = new CopyOnWriteArraySet<>();
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .evaluatePeriod(ofMillis(10))
+                .strategy(current -> new AdjustResult(null, 1))
+                .destroy(destroyed::add)
+                .build(() -> {
+                    int i = counter.getAndIncrement();
+                    if (i > 0) {
+                        creating.countDown();
+                        awaitUninterruptibly(created);
+                    }
+                    return String.valueOf(i);
+                });
+        pool.run(s -> { });
+        awaitUninterruptibly(creating);
+        long start = System.nanoTime();
+        assertEquals(emptyList(), pool.close(ofMillis(200)));
+        assertTrue(System.nanoTime() - start < SECONDS.toNanos(1));
+        assertTrue(destroyed.isEmpty());
+
+        // the object created after the close started is destroyed too.
+        created.countDown();
+        for (int i = 0; i < 500 && destroyed.size() < 2; i++) {
+            sleepUninterruptibly(10, MILLISECONDS);
+        }
+        assertEquals(ImmutableSet.of("0", "1"), destroyed);
+    }
+
+    @Test
+    void testBorrowDuringEviction() {
+        AtomicInteger counter = new AtomicInteger();
+        // the least loaded object, which is the next one to borrow, is replaced on each evaluation.
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .evaluatePeriod(ofMillis(1))
+                .strategy(current -> new AdjustResult(
+                        singletonList(ConcurrencyIndex.leastConcurrency(current, 1).get(0)), 1))
+                .build(() -> String.valueOf(counter.getAndIncrement()));
+        AtomicInteger failed = new AtomicInteger();
+        long end = System.nanoTime() + SECONDS.toNanos(1);
+        ExecutorService executor = newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                while (System.nanoTime() < end) {
+                    try {
+                        pool.run(s -> { });
+                    } catch (Throwable e) {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+        }
+        shutdownAndAwaitTermination(executor, 1, DAYS);
+        assertEquals(0, failed.get());
+        assertTrue(counter.get() > 10);
+        // a borrow which raced with an eviction never leaves its concurrency on a reused slot.
+        assertEquals(valueOf(0), pool.getStats(CURRENT_CONCURRENCY));
+        assertEquals(emptyList(), pool.close(ofSeconds(5)));
+    }
+
+    @Test
+    void testLeakDetection() throws InterruptedException {
+        CountDownLatch leakReported = new CountDownLatch(1);
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .leakDetection(1, ofMillis(200), true)
+                .eventListener(new PoolEventListener<String>() {
+
+                    @Override
+                    public void onLeak(String obj, long heldInNanos, Throwable callSite) {
+                        leakReported.countDown();
+                    }
+                })
+                .build(() -> "test");
+        Pooled<String> returned = pool.borrow();
+        pool.returnObject(returned);
+        Pooled<String> leaked = pool.borrow();
+        assertEquals(1, pool.getStats(CURRENT_CONCURRENCY).intValue());
+        assertTrue(leakReported.await(2, SECONDS));
+        sleepUninterruptibly(100, MILLISECONDS);
+        assertEquals(1L, pool.getStats(LEAKED_COUNT).longValue());
+        assertEquals(0, pool.getStats(CURRENT_CONCURRENCY).intValue());
+        // a late return would be ignored.
+        pool.returnObject(leaked);
+        assertEquals(0, pool.getStats(CURRENT_CONCURRENCY).intValue());
+        pool.close();
+
+        // checked every second from creation, the leak is only seen by the last sweep on close.
+        Pool<String> closing = ConcurrencyAwarePool.<String> builder()
+                .leakDetection(1, ofSeconds(2), true)
+                .build(() -> "test");
+        closing.run(s -> { });
+        sleepUninterruptibly(500, MILLISECONDS);
+        closing.borrow();
+        sleepUninterruptibly(2200, MILLISECONDS);
+        assertEquals(emptyList(), closing.close(ofSeconds(5)));
+        assertEquals(1L, closing.getStats(LEAKED_COUNT).longValue());
+    }
+
+    @Test
+    void testCoalesced() {
+        AtomicInteger calls = new AtomicInteger();
+        Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                .coalescedResultReuse(ofMillis(500), 100)
+                .build(() -> "test");
+        ExecutorService executor = newFixedThreadPool(10);
+        Set<String> results = new CopyOnWriteArraySet<>();
+        for (int i = 0; i < 10; i++) {
+            executor.execute(() -> results.add(pool.supplyCoalesced("key", it -> {
+                sleepUninterruptibly(200, MILLISECONDS);
+                return it + calls.incrementAndGet();
+            })));
+        }
+        shutdownAndAwaitTermination(executor, 1, DAYS);
+        assertEquals(ImmutableSet.of("test1"), results);
+        assertEquals(1, calls.get());
+
+        // reused for a while, then called again.
+        assertEquals("test1", pool.supplyCoalesced("key", it -> it + calls.incrementAndGet()));
+        sleepUninterruptibly(600, MILLISECONDS);
+        assertEquals("test2", pool.supplyCoalesced("key", it -> it + calls.incrementAndGet()));
+        assertThrows(IllegalStateException.class, () -> pool.supplyCoalesced("other", it -> {
+            throw new IllegalStateException();
+        }));
+
+        // a recursive call of the same key fails instead of waiting for itself.
+        assertTimeoutPreemptively(ofSeconds(5), () -> assertThrows(IllegalStateException.class,
+                () -> pool.supplyCoalesced("recursive",
+                        it -> pool.supplyCoalesced("recursive", other -> other))));
+        assertEquals("testtest", pool.supplyCoalesced("outer",
+                it -> it + pool.supplyCoalesced("inner", other -> other)));
+        pool.close();
     }
 
     private void runWithTest(Pool<Executor> pool, int j) {
@@ -0,0 +1,141 @@
+package com.github.phantomthief.pool.impl;
+
+import static java.util.Comparator.comparingInt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * borrows the least loaded object by {@link ConcurrencyIndex}, against the scan it replaced,
+ * with contended threads each holding a few borrows. {@link #main} runs it with 1 to 8 threads,
+ * run it on a multi-core box.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConcurrencyIndexBenchmark {
+
+    private static final int HOLD = 4;
+
+    @Param({ "4", "16", "64", "256", "1024" })
+    private int size;
+
+    private ConcurrencyIndex<Indexed> index;
+    private List<Scanned> scanned;
+
+    @Setup
+    public void setup() {
+        index = new ConcurrencyIndex<>();
+        scanned = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Indexed item = new Indexed(index, index.allocate());
+            index.activate(item.slot, item);
+            scanned.add(new Scanned());
+        }
+    }
+
+    @Benchmark
+    public Object indexed(Holder holder) {
+        Indexed item = index.leastLoaded();
+        item.enter();
+        Object old = holder.hold(item);
+        if (old != null) {
+            ((Indexed) old).leave();
+        }
+        return item;
+    }
+
+    @Benchmark
+    public Object scan(Holder holder) {
+        Scanned item = scanned.stream()
+                .filter(it -> !it.closing)
+                .min(comparingInt(Scanned::currentConcurrency))
+                .get();
+        item.concurrency.incrementAndGet();
+        Object old = holder.hold(item);
+        if (old != null) {
+            ((Scanned) old).concurrency.decrementAndGet();
+        }
+        return item;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[] { 1, 2, 4, 8 }) {
+            new Runner(new OptionsBuilder()
+                    .include(ConcurrencyIndexBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+
+    /**
+     * the borrows of a thread, the oldest one is returned on each borrow.
+     */
+    @State(Scope.Thread)
+    public static class Holder {
+
+        private final Object[] borrowed = new Object[HOLD];
+        private int next;
+
+        Object hold(Object item) {
+            Object old = borrowed[next];
+            borrowed[next] = item;
+            next = (next + 1) % HOLD;
+            return old;
+        }
+    }
+
+    private static class Indexed {
+
+        private final ConcurrencyIndex<Indexed> index;
+        private final int slot;
+        private final int generation;
+
+        Indexed(ConcurrencyIndex<Indexed> index, int slot) {
+            this.index = index;
+            this.slot = slot;
+            this.generation = index.generation(slot);
+        }
+
+        void enter() {
+            index.increment(slot, generation);
+        }
+
+        void leave() {
+            index.decrement(slot, generation);
+        }
+    }
+
+    /**
+     * what a pooled object was before the index.
+     */
+    private static class Scanned {
+
+        private final AtomicInteger concurrency = new AtomicInteger();
+        private volatile boolean closing = false;
+
+        int currentConcurrency() {
+            return concurrency.get();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.phantomthief.pool.impl;
+
+import static java.util.Comparator.comparingInt;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+
+class ConcurrencyIndexTest {
+
+    @Test
+    void testLeastLoaded() {
+        ConcurrencyIndex<Item> index = new ConcurrencyIndex<>();
+        assertNull(index.leastLoaded());
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Item item = new Item(index, index.allocate());
+            index.activate(item.slot, item);
+            items.add(item);
+            for (int j = 0; j < 200 - i; j++) {
+                item.increment();
+            }
+        }
+        assertEquals(items.get(199), index.leastLoaded());
+
+        index.deactivate(items.get(199).slot);
+        assertEquals(items.get(198), index.leastLoaded());
+        items.get(198).increment();
+        items.get(198).increment();
+        assertEquals(items.get(197), index.leastLoaded());
+
+        List<Item> expected = items.subList(0, 199).stream()
+                .sorted(comparingInt(Item::currentConcurrency))
+                .limit(10)
+                .collect(toList());
+        assertEquals(expected, index.leastLoaded(10));
+
+        // a released slot is reused from zero, and rejects its previous owner.
+        Item released = items.get(199);
+        index.release(released.slot);
+        assertEquals(released.slot, index.allocate());
+        assertEquals(0, index.get(released.slot));
+        assertEquals(-1, released.increment());
+        assertEquals(-1, released.decrement());
+        assertEquals(0, index.get(released.slot));
+
+        // a disabled index only keeps the counters.
+        index.enable(false);
+        assertNull(index.leastLoaded());
+        items.get(197).increment();
+        items.get(197).increment();
+        items.get(198).increment();
+        index.enable(true);
+        index.refresh();
+        assertEquals(items.get(196), index.leastLoaded());
+    }
+
+    @Test
+    void testConcurrent() throws InterruptedException {
+        ConcurrencyIndex<Item> index = new ConcurrencyIndex<>();
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Item item = new Item(index, index.allocate());
+            index.activate(item.slot, item);
+            items.add(item);
+        }
+        ExecutorService executor = newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int j = 0; j < 100000; j++) {
+                    Item item = items.get(random.nextInt(items.size()));
+                    item.increment();
+                    if (random.nextInt(3) > 0) {
+                        item.decrement();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, MINUTES));
+        // exact without refresh once all updates were finished.
+        int min = items.stream().mapToInt(Item::currentConcurrency).min().getAsInt();
+        assertEquals(min, index.leastLoaded().currentConcurrency());
+    }
+
+    @Test
+    void testLeastConcurrency() {
+        ConcurrencyInfo a = () -> 3;
+        ConcurrencyInfo b = () -> 1;
+        ConcurrencyInfo c = () -> 2;
+        ConcurrencyInfo d = () -> 1;
+        assertEquals(ImmutableList.of(b, d),
+                ConcurrencyIndex.leastConcurrency(ImmutableList.of(a, b, c, d), 2));
+        assertEquals(ImmutableList.of(a),
+                ConcurrencyIndex.leastConcurrency(ImmutableList.of(a), 2));
+    }
+
+    private static class Item implements ConcurrencyInfo {
+
+        private final ConcurrencyIndex<Item> index;
+        private final int slot;
+        private final int generation;
+
+        Item(ConcurrencyIndex<Item> index, int slot) {
+            this.index = index;
+            this.slot = slot;
+            this.generation = index.generation(slot);
+        }
+
+        int increment() {
+            return index.increment(slot, generation);
+        }
+
+        int decrement() {
+            return index.decrement(slot, generation);
+        }
+
+        @Override
+        public int currentConcurrency() {
+            return index.get(slot);
+        }
+    }
+}
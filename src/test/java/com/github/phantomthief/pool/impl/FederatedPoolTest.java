@@ -0,0 +1,113 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.github.phantomthief.pool.impl.ConcurrencyAwarePool.CURRENT_COUNT;
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofMinutes;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.pool.Pool;
+import com.github.phantomthief.pool.Pooled;
+
+class FederatedPoolTest {
+
+    @Test
+    void testSpillover() {
+        Pool<String> pool = FederatedPool.<String> builder()
+                .preferred(ConcurrencyAwarePool.<String> builder().build(() -> "local"), 2)
+                .secondary(ConcurrencyAwarePool.<String> builder().minIdle(2).build(() -> "remote"), 2)
+                .build();
+
+        Pooled<String> first = pool.borrow();
+        Pooled<String> second = pool.borrow();
+        assertEquals("local", first.get());
+        assertEquals("local", second.get());
+        // the preferred member was saturated.
+        Pooled<String> third = pool.borrow();
+        assertEquals("remote", third.get());
+        // lazy members are initialized by now, their stats are summed.
+        assertEquals(3, pool.getStats(CURRENT_COUNT).intValue());
+
+        pool.returnObject(first);
+        assertEquals("local", pool.supply(it -> it));
+        pool.returnObject(second);
+        pool.returnObject(third);
+
+        // a duplicated return would be ignored, the preferred member is still saturated by two.
+        pool.returnObject(first);
+        Pooled<String> fourth = pool.borrow();
+        Pooled<String> fifth = pool.borrow();
+        Pooled<String> sixth = pool.borrow();
+        assertEquals("remote", sixth.get());
+        pool.returnObject(fourth);
+        pool.returnObject(fifth);
+        pool.returnObject(sixth);
+        pool.close();
+        assertThrows(IllegalStateException.class, pool::borrow);
+    }
+
+    @Test
+    void testFailover() {
+        Pool<String> pool = FederatedPool.<String> builder()
+                .preferred(ConcurrencyAwarePool.<String> builder().build(() -> "local"), 100)
+                .secondary(ConcurrencyAwarePool.<String> builder().build(() -> "remote"), 100)
+                .maxErrorRate(0.5, 5)
+                .errorClassifier(e -> e instanceof IllegalStateException)
+                .checkPeriod(ofMillis(100))
+                .failoverDuration(ofMinutes(1))
+                .build();
+        for (int i = 0; i < 10; i++) {
+            // not counted as errors of the member.
+            assertThrows(IllegalArgumentException.class, () -> pool.run(it -> {
+                throw new IllegalArgumentException();
+            }));
+        }
+        sleepUninterruptibly(300, MILLISECONDS);
+        assertEquals("local", pool.supply(it -> it));
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IllegalStateException.class, () -> pool.run(it -> {
+                assertEquals("local", it);
+                throw new IllegalStateException();
+            }));
+        }
+        sleepUninterruptibly(300, MILLISECONDS);
+        assertEquals("remote", pool.supply(it -> it));
+        pool.close();
+    }
+
+    @Test
+    void testShareRejectionNotFailover() {
+        Pool<String> pool = FederatedPool.<String> builder()
+                .preferred(ConcurrencyAwarePool.<String> builder()
+                        .simpleThresholdStrategy(10, 0.5)
+                        .priorityShare(1, 0.3)
+                        .build(() -> "local"), 100)
+                .secondary(ConcurrencyAwarePool.<String> builder().build(() -> "remote"), 100)
+                .maxErrorRate(0.5, 5)
+                .checkPeriod(ofMillis(100))
+                .failoverDuration(ofMinutes(1))
+                .build();
+        List<Pooled<String>> borrowed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            borrowed.add(pool.borrow(1));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertThrows(RejectedExecutionException.class, () -> pool.borrow(1));
+            assertThrows(RejectedExecutionException.class, () -> pool.supply(1, it -> it));
+        }
+        sleepUninterruptibly(300, MILLISECONDS);
+        // the member only ran out of its share, it's still healthy.
+        assertEquals("local", pool.supply(it -> it));
+        borrowed.forEach(pool::returnObject);
+        pool.close();
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.phantomthief.pool.impl;
+
+import static java.time.Duration.ofMinutes;
+import static java.time.ZoneOffset.UTC;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.nCopies;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.pool.impl.ConcurrencyAdjustStrategy.AdjustResult;
+
+class ScheduledAdjustStrategyTest {
+
+    // a monday.
+    private static final LocalDateTime START = LocalDateTime.of(2026, 10, 19, 0, 0);
+
+    @Test
+    void testSchedule() throws Throwable {
+        MutableClock clock = new MutableClock(START.withHour(7).withMinute(59));
+        List<ScheduledMinSize> schedules = new ArrayList<>();
+        schedules.add(new ScheduledMinSize(EnumSet.allOf(DayOfWeek.class), LocalTime.of(8, 0),
+                LocalTime.of(20, 0), 5));
+        schedules.add(new ScheduledMinSize(EnumSet.of(DayOfWeek.MONDAY), LocalTime.of(22, 0),
+                LocalTime.of(2, 0), 3));
+        ScheduledAdjustStrategy strategy = new ScheduledAdjustStrategy(
+                new SimpleConcurrencyAdjustStrategy(10, 0.5, 1, 1), schedules, null, null, clock);
+
+        assertNull(strategy.adjust(objects(1, 1)));
+        clock.set(START.withHour(8));
+        assertEquals(4, strategy.adjust(objects(1, 1)).getCreate());
+
+        // the idle pool would not shrink below the schedule.
+        assertNull(strategy.adjust(objects(5, 0)));
+        AdjustResult result = strategy.adjust(objects(6, 0));
+        assertEquals(1, result.getEvict().size());
+
+        // crossing midnight.
+        clock.set(START.plusDays(1).withHour(1));
+        assertEquals(2, strategy.adjust(objects(1, 0)).getCreate());
+        clock.set(START.plusDays(2).withHour(1));
+        assertNull(strategy.adjust(objects(1, 0)));
+    }
+
+    @Test
+    void testFirstAdjustAfterBoundary() throws Throwable {
+        MutableClock clock = new MutableClock(START);
+        List<ScheduledMinSize> schedules = new ArrayList<>();
+        schedules.add(new ScheduledMinSize(EnumSet.allOf(DayOfWeek.class), LocalTime.of(8, 0),
+                LocalTime.of(9, 1), 5));
+        ScheduledAdjustStrategy strategy = new ScheduledAdjustStrategy(
+                new SimpleConcurrencyAdjustStrategy(10, 0.5, 1, 1), schedules, null, null, clock);
+
+        // evaluated every 7 minutes from 7:50, the window is not aligned with evaluations.
+        LocalDateTime now = START.withHour(7).withMinute(50);
+        int size = 1;
+        LocalDateTime extendedAt = null;
+        LocalDateTime shrunkAt = null;
+        for (; now.isBefore(START.withHour(10)); now = now.plusMinutes(7)) {
+            clock.set(now);
+            AdjustResult result = strategy.adjust(objects(size, 0));
+            if (result == null) {
+                continue;
+            }
+            if (result.getCreate() > 0 && extendedAt == null) {
+                extendedAt = now;
+            }
+            if (result.getEvict() != null && shrunkAt == null) {
+                shrunkAt = now;
+            }
+            size += result.getCreate() - (result.getEvict() == null ? 0 : result.getEvict().size());
+        }
+        assertEquals(START.withHour(8).withMinute(4), extendedAt);
+        assertEquals(START.withHour(9).withMinute(7), shrunkAt);
+    }
+
+    @Test
+    void testPredictive() throws Throwable {
+        MutableClock clock = new MutableClock(START);
+        ScheduledAdjustStrategy strategy = new ScheduledAdjustStrategy(
+                new SimpleConcurrencyAdjustStrategy(10, 0.5, 1, 1), emptyList(),
+                new TimeOfDayProfile(ofMinutes(5), 0.3), ofMinutes(15), clock);
+
+        // the first day, only reactive: quiet until 9:00, then 100 concurrency for an hour.
+        for (LocalDateTime now = START; now.isBefore(START.plusDays(1)); now = now.plusMinutes(1)) {
+            clock.set(now);
+            int concurrency = now.getHour() == 9 ? 100 : 0;
+            strategy.adjust(objects(1, concurrency));
+        }
+
+        // the second day, the ramp is 10 minutes ahead.
+        clock.set(START.plusDays(1).withHour(8).withMinute(30));
+        assertNull(strategy.adjust(objects(1, 0)));
+        clock.set(START.plusDays(1).withHour(8).withMinute(50));
+        assertEquals(9, strategy.adjust(objects(1, 0)).getCreate());
+    }
+
+    private static List<ConcurrencyInfo> objects(int count, int concurrencyEach) {
+        return new ArrayList<>(nCopies(count, () -> concurrencyEach));
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant instant;
+
+        MutableClock(LocalDateTime now) {
+            set(now);
+        }
+
+        void set(LocalDateTime now) {
+            this.instant = now.toInstant(UTC);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
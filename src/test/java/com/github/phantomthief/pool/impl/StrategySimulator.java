@@ -0,0 +1,312 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Comparator.comparingInt;
+import static java.util.Comparator.comparingLong;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import com.github.phantomthief.pool.impl.ConcurrencyAdjustStrategy.AdjustResult;
+
+/**
+ * deterministic discrete-event simulator which drives a {@link ConcurrencyAdjustStrategy}
+ * the same way as {@link ConcurrencyAwarePool} does, but on a virtual clock.
+ *
+ * borrow always picks the least loaded object (first one on tie), the strategy is evaluated
+ * every {@code evaluatePeriod}, evicted objects stop accepting new requests and are dropped
+ * after their in-flight requests finish.
+ */
+class StrategySimulator {
+
+    private final Supplier<? extends ConcurrencyAdjustStrategy> strategyFactory;
+    private final int minIdle;
+    private final int maxSize;
+    private final long evaluatePeriod;
+    private final int overloadThreshold;
+
+    /**
+     * @param strategyFactory a fresh strategy is created on each {@link #run}, as most strategies are stateful.
+     * @param evaluatePeriod in virtual milliseconds.
+     * @param overloadThreshold the pool is considered overloaded if the least loaded object reaches it.
+     */
+    StrategySimulator(Supplier<? extends ConcurrencyAdjustStrategy> strategyFactory, int minIdle,
+            int maxSize, long evaluatePeriod, int overloadThreshold) {
+        checkArgument(minIdle > 0 && maxSize >= minIdle);
+        checkArgument(evaluatePeriod > 0);
+        this.strategyFactory = strategyFactory;
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.evaluatePeriod = evaluatePeriod;
+        this.overloadThreshold = overloadThreshold;
+    }
+
+    /**
+     * @param tail how long to keep evaluating after the last request finished, to observe shrinking.
+     */
+    Report run(List<Request> trace, long tail) {
+        ConcurrencyAdjustStrategy strategy = strategyFactory.get();
+        List<SimObject> active = new ArrayList<>();
+        for (int i = 0; i < minIdle; i++) {
+            active.add(new SimObject());
+        }
+        Report report = new Report();
+        report.sizeTimeline.add(new long[] { 0, active.size() });
+
+        List<Request> arrivals = new ArrayList<>(trace);
+        arrivals.sort(comparingLong(Request::getArrival));
+        PriorityQueue<Completion> completions = new PriorityQueue<>(comparingLong(Completion::getTime));
+
+        int nextArrival = 0;
+        long nextTick = evaluatePeriod;
+        long lastEventTime = 0;
+        long end = Long.MAX_VALUE;
+        while (true) {
+            long arrivalTime = nextArrival < arrivals.size() ? arrivals.get(nextArrival).arrival
+                                                             : Long.MAX_VALUE;
+            long completionTime = completions.isEmpty() ? Long.MAX_VALUE : completions.peek().time;
+            if (end == Long.MAX_VALUE && arrivalTime == Long.MAX_VALUE && completions.isEmpty()) {
+                end = lastEventTime + tail;
+            }
+            long now = Math.min(Math.min(arrivalTime, completionTime), nextTick);
+            if (now > end) {
+                report.accumulate(active, end - lastEventTime, overloadThreshold);
+                report.duration = end;
+                return report;
+            }
+            report.accumulate(active, now - lastEventTime, overloadThreshold);
+            lastEventTime = now;
+
+            // completions first, then evaluation, then arrivals for events on the same instant.
+            if (completionTime == now) {
+                Completion completion = completions.poll();
+                completion.object.concurrency--;
+            } else if (nextTick == now) {
+                nextTick += evaluatePeriod;
+                tick(strategy, active, report, now);
+            } else {
+                Request request = arrivals.get(nextArrival++);
+                SimObject selected = Collections.min(active, comparingInt(SimObject::currentConcurrency));
+                selected.concurrency++;
+                report.borrowConcurrency.add(selected.concurrency);
+                completions.add(new Completion(now + request.latency, selected));
+            }
+        }
+    }
+
+    private void tick(ConcurrencyAdjustStrategy strategy, List<SimObject> active, Report report,
+            long now) {
+        report.evaluations++;
+        AdjustResult adjust;
+        try {
+            adjust = strategy.adjust(active);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        if (adjust != null) {
+            apply(adjust, active, report);
+        }
+        report.sizeTimeline.add(new long[] { now, active.size() });
+    }
+
+    private void apply(AdjustResult adjust, List<SimObject> active, Report report) {
+        int realToCreate = Math.min(adjust.getCreate(), maxSize - active.size());
+        for (int i = 0; i < realToCreate; i++) {
+            active.add(new SimObject());
+            report.created++;
+        }
+        if (adjust.getEvict() != null) {
+            int toRemoveCount = Math.max(0, active.size() - minIdle);
+            for (ConcurrencyInfo item : adjust.getEvict()) {
+                if (toRemoveCount <= 0) {
+                    break;
+                }
+                if (active.removeIf(it -> it == item)) {
+                    toRemoveCount--;
+                    report.evicted++;
+                }
+            }
+        }
+    }
+
+    static final class Request {
+
+        private final long arrival;
+        private final long latency;
+
+        Request(long arrival, long latency) {
+            checkArgument(arrival >= 0 && latency >= 0);
+            this.arrival = arrival;
+            this.latency = latency;
+        }
+
+        long getArrival() {
+            return arrival;
+        }
+    }
+
+    /**
+     * @param lines each line is {@code arrivalMs,latencyMs}, as recorded from production.
+     */
+    static List<Request> parseTrace(List<String> lines) {
+        List<Request> result = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] split = line.split(",");
+            result.add(new Request(Long.parseLong(split[0].trim()), Long.parseLong(split[1].trim())));
+        }
+        return result;
+    }
+
+    /**
+     * poisson arrivals with exponential latency.
+     */
+    static List<Request> poissonTrace(long seed, long start, long duration, double ratePerSecond,
+            long meanLatency) {
+        Random random = new Random(seed);
+        List<Request> result = new ArrayList<>();
+        double time = start;
+        while (true) {
+            time += -Math.log(1 - random.nextDouble()) * 1000 / ratePerSecond;
+            if (time >= start + duration) {
+                return result;
+            }
+            long latency = (long) (-Math.log(1 - random.nextDouble()) * meanLatency);
+            result.add(new Request((long) time, latency));
+        }
+    }
+
+    static final class Report {
+
+        private final List<long[]> sizeTimeline = new ArrayList<>();
+        private final IntList borrowConcurrency = new IntList();
+        private int created;
+        private int evicted;
+        private int evaluations;
+        private long overloadTime;
+        private long sizeTimeIntegral;
+        private long duration;
+
+        private void accumulate(List<SimObject> active, long elapsed, int overloadThreshold) {
+            if (elapsed <= 0) {
+                return;
+            }
+            sizeTimeIntegral += elapsed * active.size();
+            if (active.stream().allMatch(it -> it.concurrency >= overloadThreshold)) {
+                overloadTime += elapsed;
+            }
+        }
+
+        /**
+         * @return pairs of {@code [virtual time, pool size]}, the initial size, then one sample per evaluation.
+         */
+        List<long[]> getSizeTimeline() {
+            return sizeTimeline;
+        }
+
+        int getFinalSize() {
+            return (int) sizeTimeline.get(sizeTimeline.size() - 1)[1];
+        }
+
+        int getMaxSize() {
+            return (int) sizeTimeline.stream().mapToLong(it -> it[1]).max().orElse(0);
+        }
+
+        double getAverageSize() {
+            return duration == 0 ? 0 : (double) sizeTimeIntegral / duration;
+        }
+
+        /**
+         * @param percentile in [0, 100], of the concurrency seen by each borrow on the object it picked.
+         */
+        int concurrencyPercentile(double percentile) {
+            return borrowConcurrency.percentile(percentile);
+        }
+
+        int getCreated() {
+            return created;
+        }
+
+        int getEvicted() {
+            return evicted;
+        }
+
+        int getEvaluations() {
+            return evaluations;
+        }
+
+        long getOverloadTime() {
+            return overloadTime;
+        }
+
+        @Override
+        public String toString() {
+            return "size(avg/max/final)=" + String.format("%.2f", getAverageSize()) + "/" + getMaxSize()
+                    + "/" + getFinalSize() + ", concurrency(p50/p90/p99/max)="
+                    + concurrencyPercentile(50) + "/" + concurrencyPercentile(90) + "/"
+                    + concurrencyPercentile(99) + "/" + concurrencyPercentile(100) + ", created="
+                    + created + ", evicted=" + evicted + ", overloadTime=" + overloadTime + "ms/"
+                    + duration + "ms";
+        }
+    }
+
+    private static final class SimObject implements ConcurrencyInfo {
+
+        private int concurrency;
+
+        @Override
+        public int currentConcurrency() {
+            return concurrency;
+        }
+    }
+
+    private static final class Completion {
+
+        private final long time;
+        private final SimObject object;
+
+        Completion(long time, SimObject object) {
+            this.time = time;
+            this.object = object;
+        }
+
+        long getTime() {
+            return time;
+        }
+    }
+
+    private static final class IntList {
+
+        private int[] values = new int[1024];
+        private int size;
+        private boolean sorted = true;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            sorted = false;
+        }
+
+        int percentile(double percentile) {
+            if (size == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(values, 0, size);
+                sorted = true;
+            }
+            int index = (int) Math.ceil(percentile / 100 * size) - 1;
+            return values[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.github.phantomthief.pool.impl.StrategySimulator.parseTrace;
+import static com.github.phantomthief.pool.impl.StrategySimulator.poissonTrace;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.phantomthief.pool.impl.StrategySimulator.Report;
+import com.github.phantomthief.pool.impl.StrategySimulator.Request;
+
+class StrategySimulatorTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(StrategySimulatorTest.class);
+
+    @Test
+    void testBurst() {
+        // idle, then 10 seconds of 2000 qps with 50ms latency (~100 in flight), then idle again.
+        List<Request> trace = new ArrayList<>();
+        trace.addAll(poissonTrace(1, 0, 10_000, 10, 50));
+        trace.addAll(poissonTrace(2, 10_000, 10_000, 2000, 50));
+        trace.addAll(poissonTrace(3, 20_000, 10_000, 10, 50));
+
+        StrategySimulator simulator = new StrategySimulator(
+                () -> new SimpleConcurrencyAdjustStrategy(10, 0.5, 1, 1), 1, 20, 1000, 10);
+        Report report = simulator.run(trace, 60_000);
+        logger.info("simple(10, 0.5, 1, 1): {}", report);
+        assertTrue(report.getMaxSize() > 5);
+        assertEquals(1, report.getFinalSize());
+        assertEquals(report.getCreated(), report.getEvicted());
+        assertTrue(report.getOverloadTime() > 0);
+
+        // deterministic
+        assertEquals(report.toString(), simulator.run(trace, 60_000).toString());
+
+        // a strategy which reacts on every cycle spends less time overloaded than a lazy one.
+        Report lazy = new StrategySimulator(
+                () -> new SimpleConcurrencyAdjustStrategy(10, 0.5, 3, 5), 1, 20, 1000, 10)
+                .run(trace, 60_000);
+        logger.info("simple(10, 0.5, 3, 5): {}", lazy);
+        assertTrue(lazy.getOverloadTime() > report.getOverloadTime());
+    }
+
+    @Test
+    void testRecordedTrace() {
+        List<Request> trace = parseTrace(asList(
+                "# arrivalMs,latencyMs",
+                "0,5000",
+                "10,5000",
+                "20,5000",
+                "1500,10"));
+        Report report = new StrategySimulator(
+                () -> new SimpleConcurrencyAdjustStrategy(2, 0.5, 1, 1), 1, 10, 1000, 2)
+                .run(trace, 5_000);
+        logger.info("recorded: {}", report);
+        assertEquals(1, report.getCreated());
+        assertEquals(3, report.concurrencyPercentile(100));
+        assertEquals(1, report.getFinalSize());
+    }
+}
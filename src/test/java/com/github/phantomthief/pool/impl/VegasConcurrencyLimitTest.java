@@ -0,0 +1,79 @@
+package com.github.phantomthief.pool.impl;
+
+import static com.google.common.collect.ImmutableList.of;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.pool.impl.ConcurrencyAdjustStrategy.AdjustResult;
+
+class VegasConcurrencyLimitTest {
+
+    @Test
+    void testLimit() {
+        VegasConcurrencyLimit limit = new VegasConcurrencyLimit(10, 100);
+        long rtt = MILLISECONDS.toNanos(10);
+        limit.onSample(rtt, 1);
+        assertEquals(10, limit.getLimit());
+
+        // not used up to the limit, no reason to grow.
+        limit.onSample(rtt, 1);
+        assertEquals(10, limit.getLimit());
+
+        // no queuing while fully used, grow.
+        limit.onSample(rtt, 10);
+        assertTrue(limit.getLimit() > 10);
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(rtt, limit.getLimit());
+        }
+        assertEquals(100, limit.getLimit());
+
+        // latency doubled, calls are queuing inside the object, shrink.
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(rtt * 2, limit.getLimit());
+        }
+        int shrunk = limit.getLimit();
+        assertTrue(shrunk < 100);
+        assertTrue(shrunk >= 1);
+    }
+
+    @Test
+    void testStrategy() {
+        AdaptiveLimitAdjustStrategy strategy = new AdaptiveLimitAdjustStrategy(0.9, 0.5);
+        ConcurrencyInfo busy = new LimitedInfo(9, 10);
+        assertEquals(1, strategy.adjust(of(busy)).getCreate());
+
+        ConcurrencyInfo idle = new LimitedInfo(0, 10);
+        AdjustResult result = strategy.adjust(
+                of(new LimitedInfo(2, 10), idle));
+        assertEquals(0, result.getCreate());
+        assertTrue(result.getEvict().contains(idle));
+
+        assertNull(strategy.adjust(
+                of(new LimitedInfo(6, 10), new LimitedInfo(5, 10))));
+    }
+
+    private static class LimitedInfo implements ConcurrencyInfo {
+
+        private final int concurrency;
+        private final int limit;
+
+        private LimitedInfo(int concurrency, int limit) {
+            this.concurrency = concurrency;
+            this.limit = limit;
+        }
+
+        @Override
+        public int currentConcurrency() {
+            return concurrency;
+        }
+
+        @Override
+        public int concurrencyLimit() {
+            return limit;
+        }
+    }
+}
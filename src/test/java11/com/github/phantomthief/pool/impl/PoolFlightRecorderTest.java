@@ -0,0 +1,55 @@
+package com.github.phantomthief.pool.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.phantomthief.pool.Pool;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * only compiled and run by the java11 profile.
+ */
+class PoolFlightRecorderTest {
+
+    @Test
+    void testEvents() throws Exception {
+        Path file = Files.createTempFile("simple-pool", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.github.phantomthief.pool.Create");
+            recording.enable("com.github.phantomthief.pool.Destroy");
+            recording.start();
+            assertTrue(PoolFlightRecorder.isEnabled());
+
+            Pool<String> pool = ConcurrencyAwarePool.<String> builder()
+                    .name("jfr-test")
+                    .minIdle(2)
+                    .destroy(s -> { })
+                    .build(() -> "test");
+            assertEquals("test", pool.supply(s -> s));
+            pool.close();
+
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        assertEquals(2, count(events, "com.github.phantomthief.pool.Create"));
+        assertEquals(2, count(events, "com.github.phantomthief.pool.Destroy"));
+    }
+
+    private static long count(List<RecordedEvent> events, String type) {
+        return events.stream()
+                .filter(it -> it.getEventType().getName().equals(type))
+                .filter(it -> "jfr-test".equals(it.getString("pool")))
+                .count();
+    }
+}